@@ -0,0 +1,205 @@
+package com.taptiles.bench;
+
+
+/**
+ * Benchmarks the mixing of one block by AudioMixer, the work done by the
+ * mixing thread for every block written to the audio line, of sampled or
+ * synthesized notes, and decoding wav files into a NoteBank on one thread or
+ * all cores, all of them or only the notes of a sheet within a budget, or
+ * pitching all notes from one of them. Voices play generated notes and are
+ * restarted as they end, so every voice is mixed.
+ */
+
+
+import com.taptiles.AudioMixer;
+import com.taptiles.NoteBank;
+import com.taptiles.SampleVoice;
+import com.taptiles.SynthVoice;
+import com.taptiles.Voice;
+import com.taptiles.Wavetable;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.BitSet;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AudioBenchmark {
+    private static final int NOTE_COUNT = 24;       // notes bundled with the game
+    private static final int NOTE_FRAMES = 48000;   // one second per note
+    private static final int SHEET_NOTES = 8;       // distinct notes of a sheet
+    private static final int LOW_KEY = 84;          // MIDI key of the first note, C6
+
+    // number of notes playing at once
+    @Param({ "1", "16" })
+    public int voiceCount;
+
+    // frames mixed per block
+    @Param({ "128" })
+    public int blockFrames;
+
+    private File[] noteFiles;
+    private URL[] noteUrls;
+    private AudioMixer mixer;
+    private AudioMixer synthMixer;
+    private byte[] block;
+    private int note;
+
+    @Setup
+    public void setup() throws IOException {
+        AudioFormat format = AudioMixer.DEFAULT_FORMAT;
+        Random random = new Random(42);
+        noteFiles = new File[NOTE_COUNT];
+        noteUrls = new URL[NOTE_COUNT];
+
+        for (int i = 0; i < NOTE_COUNT; i++) {
+            ByteBuffer data = ByteBuffer.allocate(NOTE_FRAMES * format.getFrameSize())
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            while (data.hasRemaining()) {
+                data.putShort((short) (random.nextInt(1 << 14) - (1 << 13)));
+            }
+
+            noteFiles[i] = File.createTempFile("taptiles-bench", ".wav");
+            AudioSystem.write(new AudioInputStream(new ByteArrayInputStream(data.array()),
+                    format, NOTE_FRAMES), AudioFileFormat.Type.WAVE, noteFiles[i]);
+            noteUrls[i] = noteFiles[i].toURI().toURL();
+        }
+
+        NoteBank bank = NoteBank.decode(noteUrls, format);
+
+        Voice[] voices = new Voice[voiceCount];
+        for (int i = 0; i < voices.length; i++) {
+            voices[i] = new SampleVoice(bank);
+        }
+
+        mixer = new AudioMixer(voices, format, blockFrames);
+
+        int[] noteKeys = new int[NOTE_COUNT];
+        for (int i = 0; i < noteKeys.length; i++) {
+            noteKeys[i] = LOW_KEY + i;
+        }
+
+        Wavetable wavetable = new Wavetable(format);
+        Voice[] synthVoices = new Voice[voiceCount];
+        for (int i = 0; i < synthVoices.length; i++) {
+            synthVoices[i] = new SynthVoice(wavetable, noteKeys);
+        }
+
+        synthMixer = new AudioMixer(synthVoices, format, blockFrames);
+        block = new byte[blockFrames * format.getFrameSize()];
+    }
+
+    @TearDown
+    public void tearDown() {
+        for (File noteFile : noteFiles) {
+            noteFile.delete();
+        }
+    }
+
+    @Benchmark
+    public byte[] mix() {
+        while (mixer.getPlayingCount() < voiceCount) {
+            mixer.play(note + 1);
+            note = (note + 1) % NOTE_COUNT;
+            mixer.mix(block);
+        }
+
+        mixer.mix(block);
+        return block;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public NoteBank decodePitched() throws IOException {
+        int[] noteKeys = new int[NOTE_COUNT];
+        for (int i = 0; i < noteKeys.length; i++) {
+            noteKeys[i] = LOW_KEY + i;
+        }
+
+        // pitched from the note in the middle, an octave either way
+        NoteBank bank = NoteBank.openPitched(noteUrls[12], LOW_KEY + 12, noteKeys,
+                AudioMixer.DEFAULT_FORMAT, Long.MAX_VALUE);
+        for (int note = 1; note <= NOTE_COUNT; note++) {
+            bank.load(note);
+        }
+        return bank;
+    }
+
+    @Benchmark
+    public byte[] mixSynth() {
+        while (synthMixer.getPlayingCount() < voiceCount) {
+            synthMixer.play(note + 1);
+            note = (note + 1) % NOTE_COUNT;
+            synthMixer.mix(block);
+        }
+
+        synthMixer.mix(block);
+        return block;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public NoteBank decode() throws IOException {
+        return NoteBank.decode(noteUrls, AudioMixer.DEFAULT_FORMAT);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public NoteBank loadParallel() throws IOException {
+        NoteBank bank = NoteBank.open(noteUrls, AudioMixer.DEFAULT_FORMAT, Long.MAX_VALUE);
+        bank.loadAll().join();
+        return bank;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public NoteBank preloadSheet() throws IOException {
+        AudioFormat format = AudioMixer.DEFAULT_FORMAT;
+        NoteBank bank = NoteBank.open(noteUrls, format,
+                (long) SHEET_NOTES * NOTE_FRAMES * format.getFrameSize());
+
+        BitSet notes = new BitSet();
+        for (int i = 0; i < SHEET_NOTES; i++) {
+            notes.set(1 + i * NOTE_COUNT / SHEET_NOTES);
+        }
+        bank.preload(notes).join();
+        return bank;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public NoteBank decodeResampled() throws IOException {
+        return NoteBank.decode(noteUrls, new AudioFormat(44100, 16, 2, true, false));
+    }
+}
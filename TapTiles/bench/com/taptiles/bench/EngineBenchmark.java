@@ -0,0 +1,113 @@
+package com.taptiles.bench;
+
+
+/**
+ * Benchmarks the per-pulse and per-press work of the game engine, i.e. what
+ * TileTimer.handle and verifyKeyPressed delegate to. A simple autoplayer
+ * hits the frontmost tile whenever more than one is waiting so that games
+ * run long enough to reach every speed level.
+ */
+
+
+import com.taptiles.GameEngine;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EngineBenchmark {
+    private GameEngine engine;
+
+    /**
+     * Display refresh rate simulated by the pulse benchmark.
+     */
+    @State(Scope.Thread)
+    public static class Display {
+        @Param({ "60", "144" })
+        public int frameRate;
+
+        private long frameNanos;
+
+        @Setup
+        public void setup() {
+            frameNanos = 1_000_000_000L / frameRate;
+        }
+    }
+
+    @Setup
+    public void setup() {
+        engine = new GameEngine(4, 8, 150, 450, new Random(42));
+        engine.reset();
+    }
+
+    /**
+     * Hits the frontmost tile if the next one is already on its way, and
+     * starts a new game if the previous one ended.
+     */
+    private void autoplay() {
+        if (!engine.isRunning()) {
+            engine.reset();
+        }
+        else if (engine.getQueueSize() > 1) {
+            engine.press(engine.getNextLane());
+        }
+    }
+
+    /**
+     * Single fixed simulation step, including tile spawning and speed
+     * changes.
+     */
+    @Benchmark
+    public boolean step() {
+        boolean running = engine.step();
+        autoplay();
+        return running;
+    }
+
+    /**
+     * Work done by TileTimer.handle for one pulse at the given refresh rate.
+     */
+    @Benchmark
+    public double pulse(Display display) {
+        engine.advance(display.frameNanos);
+        autoplay();
+
+        double y = 0;
+        for (int i = 0; i < engine.getTileCount(); i++) {
+            y += engine.getTileY(i, engine.getAlpha());
+        }
+        return y;
+    }
+
+    /**
+     * Correct key press on the frontmost tile, followed by the steps needed
+     * until the next tile is waiting.
+     */
+    @Benchmark
+    public GameEngine.Judgement pressAndRespawn() {
+        if (!engine.isRunning()) {
+            engine.reset();
+        }
+
+        while (engine.getNextLane() == -1 && engine.step()) {
+            // wait for the next tile to spawn
+        }
+        return engine.press(engine.getNextLane());
+    }
+}
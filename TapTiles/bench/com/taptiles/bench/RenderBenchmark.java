@@ -0,0 +1,184 @@
+package com.taptiles.bench;
+
+
+/**
+ * Compares frame times of the node and canvas renderers at increasing tile
+ * densities. Needs a running JavaFX toolkit, so unlike the JMH benchmarks it
+ * runs as an application with pulses unthrottled and vsync disabled, making
+ * the interval between pulses the full cost of a frame.
+ *
+ * For each backend and density, records the interval between pulses and the
+ * time spent in TileRenderer.render, and writes mean/p50/p99/max in
+ * microseconds as CSV to the file given as the first argument.
+ */
+
+
+import com.taptiles.CanvasRenderer;
+import com.taptiles.GameEngine;
+import com.taptiles.NodeRenderer;
+import com.taptiles.TileRenderer;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import javafx.animation.AnimationTimer;
+import javafx.application.Application;
+import javafx.application.Platform;
+import javafx.scene.Scene;
+import javafx.scene.layout.Pane;
+import javafx.stage.Stage;
+
+
+public class RenderBenchmark extends Application {
+    private static final int WIN_X = 400;
+    private static final int WIN_Y = 450;
+
+    private static final int WARMUP_FRAMES = 300;
+    private static final int MEASURED_FRAMES = 1200;
+
+    private static final String[] BACKENDS = { "node", "canvas" };
+
+    // lane count and tile height of each density, shorter tiles put more
+    // tiles on screen at once
+    private static final int[][] DENSITIES = { { 4, 150 }, { 8, 30 }, { 16, 6 } };
+
+    private final long[] pulseNanos = new long[MEASURED_FRAMES];
+    private final long[] renderNanos = new long[MEASURED_FRAMES];
+
+    private PrintWriter report;
+    private Stage stage;
+    private int run;
+
+    public static void main(String[] args) {
+        System.setProperty("javafx.animation.fullspeed", "true");
+        System.setProperty("prism.vsync", "false");
+        launch(args);
+    }
+
+    @Override
+    public void start(Stage stage) throws IOException {
+        List<String> args = getParameters().getRaw();
+        File reportFile = new File(args.isEmpty() ? "render-result.csv" : args.get(0));
+        if (reportFile.getParentFile() != null) {
+            reportFile.getParentFile().mkdirs();
+        }
+
+        report = new PrintWriter(reportFile, "UTF-8");
+        report.println("backend,lanes,tileHeight,visibleTiles,"
+                + "pulseMeanUs,pulseP50Us,pulseP99Us,pulseMaxUs,"
+                + "renderMeanUs,renderP50Us,renderP99Us,renderMaxUs");
+
+        this.stage = stage;
+        stage.setTitle("Render benchmark");
+        nextRun();
+    }
+
+    /**
+     * Starts the next backend and density, or exits once all are done.
+     */
+    private void nextRun() {
+        if (run == BACKENDS.length * DENSITIES.length) {
+            report.close();
+            Platform.exit();
+            return;
+        }
+
+        String backend = BACKENDS[run / DENSITIES.length];
+        int[] density = DENSITIES[run % DENSITIES.length];
+        run++;
+
+        GameEngine engine = new GameEngine(density[0], 8, density[1], WIN_Y, new Random(42));
+        engine.reset();
+
+        String keys = new String(new char[density[0]]).replace('\0', '#');
+        TileRenderer renderer = backend.equals("canvas")
+                ? new CanvasRenderer(engine, keys, WIN_X, WIN_Y)
+                : new NodeRenderer(engine, keys, WIN_X, WIN_Y);
+
+        Pane root = new Pane();
+        root.getChildren().add(renderer.getView());
+
+        Scene scene = new Scene(root, WIN_X, WIN_Y);
+        scene.getStylesheets().add(
+                GameEngine.class.getResource("TapTiles.css").toExternalForm());
+
+        stage.setScene(scene);
+        stage.show();
+
+        new AnimationTimer() {
+            private long lastPulse = -1;
+            private int frame = -WARMUP_FRAMES;
+            private int visibleTiles;
+
+            @Override
+            public void handle(long now) {
+                // tiles are not hit, so games are restarted when they end
+                if (!engine.advance(lastPulse < 0 ? 0 : now - lastPulse)) {
+                    engine.reset();
+                }
+
+                long start = System.nanoTime();
+                renderer.render(engine.getAlpha());
+                long end = System.nanoTime();
+
+                if (frame >= 0) {
+                    pulseNanos[frame] = now - lastPulse;
+                    renderNanos[frame] = end - start;
+                    visibleTiles = Math.max(visibleTiles, countVisible(engine));
+                }
+                lastPulse = now;
+
+                if (++frame == MEASURED_FRAMES) {
+                    stop();
+                    report(backend, density, visibleTiles);
+                    nextRun();
+                }
+            }
+        }.start();
+    }
+
+    private static int countVisible(GameEngine engine) {
+        int count = 0;
+        for (int lane = 0; lane < engine.getLaneCount(); lane++) {
+            for (int n = 0; n < engine.getActiveCount(lane); n++) {
+                int tile = engine.getActiveTile(lane, n);
+                double y = engine.getTileY(tile, 1.0);
+                if (y > -engine.getTileHeight(tile) && y < WIN_Y) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    private void report(String backend, int[] density, int visibleTiles) {
+        String line = backend + "," + density[0] + "," + density[1] + ","
+                + visibleTiles + "," + summarize(pulseNanos) + ","
+                + summarize(renderNanos);
+
+        System.out.println(line);
+        report.println(line);
+    }
+
+    /**
+     * Returns the mean, p50, p99 and max of the samples in microseconds.
+     */
+    private static String summarize(long[] nanos) {
+        long[] sorted = nanos.clone();
+        Arrays.sort(sorted);
+
+        long sum = 0;
+        for (long n : sorted) {
+            sum += n;
+        }
+
+        return String.format(Locale.ROOT, "%.1f,%.1f,%.1f,%.1f",
+                sum / (sorted.length * 1000.0),
+                sorted[sorted.length / 2] / 1000.0,
+                sorted[(int) (sorted.length * 0.99)] / 1000.0,
+                sorted[sorted.length - 1] / 1000.0);
+    }
+}
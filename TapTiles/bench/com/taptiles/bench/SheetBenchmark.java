@@ -0,0 +1,109 @@
+package com.taptiles.bench;
+
+
+/**
+ * Benchmarks sheet loading on generated sheets of random notes, both parsing
+ * from memory, on one or all cores, and reading from a file, reading a
+ * compiled sheet and playing through a mapped file.
+ */
+
+
+import com.taptiles.CompiledSheet;
+import com.taptiles.MappedSheet;
+import com.taptiles.ParallelSheetParser;
+import com.taptiles.Sheet;
+import com.taptiles.SheetLoader;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SheetBenchmark {
+    private static final int NOTE_COUNT = 24;   // notes bundled with the game
+
+    // number of notes in the generated sheet
+    @Param({ "64", "1000000", "5000000" })
+    public int sheetSize;
+
+    private byte[] data;
+    private File sheetFile;
+
+    @Setup
+    public void setup() throws IOException {
+        Random random = new Random(42);
+        StringBuilder sheet = new StringBuilder();
+
+        for (int i = 0; i < sheetSize; i++) {
+            if (i > 0) {
+                sheet.append(' ');
+            }
+            sheet.append(1 + random.nextInt(NOTE_COUNT));
+        }
+
+        data = sheet.toString().getBytes(StandardCharsets.UTF_8);
+
+        sheetFile = File.createTempFile("taptiles-bench", ".txt");
+        Files.write(sheetFile.toPath(), data);
+
+        CompiledSheet.write(sheetFile, sheetFile.length(), sheetFile.lastModified(),
+                CompiledSheet.hash(sheetFile), SheetLoader.read(sheetFile, NOTE_COUNT));
+    }
+
+    @TearDown
+    public void tearDown() {
+        CompiledSheet.fileFor(sheetFile).delete();
+        sheetFile.delete();
+    }
+
+    @Benchmark
+    public Sheet parse() throws IOException {
+        return SheetLoader.parse(data, NOTE_COUNT);
+    }
+
+    @Benchmark
+    public Sheet parseParallel() throws IOException {
+        return ParallelSheetParser.parse(data, NOTE_COUNT);
+    }
+
+    @Benchmark
+    public Sheet load() throws IOException {
+        return SheetLoader.read(sheetFile, NOTE_COUNT);
+    }
+
+    @Benchmark
+    public Sheet compiled() throws IOException {
+        return CompiledSheet.read(sheetFile, NOTE_COUNT);
+    }
+
+    @Benchmark
+    public int map() throws IOException {
+        Sheet sheet = MappedSheet.open(sheetFile, NOTE_COUNT);
+        int sum = 0;
+
+        for (int i = 0; i < sheetSize; i++) {
+            sum += sheet.getNote(i);
+        }
+        return sum;
+    }
+}
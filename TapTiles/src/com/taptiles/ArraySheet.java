@@ -0,0 +1,30 @@
+package com.taptiles;
+
+
+/**
+ * Sheet parsed up front, with all of its notes kept in an int array.
+ */
+
+
+public class ArraySheet implements Sheet {
+    private final int[] NOTES;
+
+    /**
+     * Creates a sheet from parsed notes. The array is used as is.
+     *
+     * @param notes indexes of the notes in the sheet, at least one
+     */
+    public ArraySheet(int[] notes) {
+        NOTES = notes;
+    }
+
+    @Override
+    public int getNote(int position) {
+        return NOTES[position % NOTES.length];
+    }
+
+    @Override
+    public int size() {
+        return NOTES.length;
+    }
+}
@@ -0,0 +1,152 @@
+package com.taptiles;
+
+
+/**
+ * Software mixer of a fixed pool of voices. Notes are handed over through a
+ * lock-free NoteQueue and started at the next block mixed, so a note is
+ * heard after at most one block plus the buffer of the audio line. When
+ * every voice is busy, the voice playing the oldest note is stolen.
+ *
+ * Mixing does not allocate, so it can run on a dedicated thread for the
+ * whole game without pauses from the garbage collector, see MixerPlayer.
+ */
+
+
+import java.util.Arrays;
+import javax.sound.sampled.AudioFormat;
+
+
+public class AudioMixer {
+    // 16-bit stereo at the rate of the bundled wav files
+    public static final AudioFormat DEFAULT_FORMAT = new AudioFormat(48000, 16, 2, true, false);
+
+    private static final int QUEUE_SIZE = 64;   // notes waiting to start
+
+    private final AudioFormat FORMAT;           // 16-bit little-endian PCM
+
+    private final Voice[] VOICES;
+    private final boolean[] IS_PLAYING;
+    private final long[] STARTED;               // order voices were started in
+
+    private final NoteQueue QUEUE;
+
+    private final int[] MIX;                    // samples of the block mixed
+
+    private long startCount;                    // notes started so far
+
+    // written by the mixing thread, read for the summary
+    private volatile int playingCount;
+    private volatile long stolenCount;
+
+    private long droppedCount;                  // notes offered to a full queue
+
+    /**
+     * Creates a silent mixer.
+     *
+     * @param voices        pool of voices, each playing one note at a time
+     * @param format        16-bit signed little-endian PCM format to mix in
+     * @param blockFrames   maximum number of frames mixed at once
+     */
+    public AudioMixer(Voice[] voices, AudioFormat format, int blockFrames) {
+        FORMAT = format;
+        VOICES = voices;
+        IS_PLAYING = new boolean[voices.length];
+        STARTED = new long[voices.length];
+
+        QUEUE = new NoteQueue(QUEUE_SIZE);
+        MIX = new int[blockFrames * FORMAT.getChannels()];
+    }
+
+    /**
+     * Queues a note to start at the next block. Must only be called from one
+     * thread.
+     *
+     * @param note  index of the note, from 1
+     */
+    public void play(int note) {
+        if (!QUEUE.offer(note)) {
+            droppedCount++;
+        }
+    }
+
+    /**
+     * Starts the queued notes and mixes the next block of all voices. Must
+     * only be called from one thread.
+     *
+     * @param out   receives the block as 16-bit little-endian samples, at
+     *              most blockFrames frames
+     */
+    public void mix(byte[] out) {
+        int frames = out.length / FORMAT.getFrameSize();
+        int samples = frames * FORMAT.getChannels();
+
+        for (int note = QUEUE.poll(); note != NoteQueue.EMPTY; note = QUEUE.poll()) {
+            start(note);
+        }
+
+        Arrays.fill(MIX, 0, samples, 0);
+
+        int playing = 0;
+        for (int i = 0; i < VOICES.length; i++) {
+            if (IS_PLAYING[i]) {
+                IS_PLAYING[i] = VOICES[i].mix(MIX, frames);
+                playing++;
+            }
+        }
+        playingCount = playing;
+
+        for (int i = 0; i < samples; i++) {
+            int sample = Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, MIX[i]));
+
+            out[2 * i] = (byte) sample;
+            out[2 * i + 1] = (byte) (sample >> 8);
+        }
+    }
+
+    /**
+     * Starts a note on a free voice, or on the voice of the oldest note if
+     * none is free.
+     *
+     * @param note  index of the note, from 1
+     */
+    private void start(int note) {
+        int voice = 0;
+        for (int i = 0; i < VOICES.length; i++) {
+            if (!IS_PLAYING[i]) {
+                voice = i;
+                break;
+            }
+            else if (STARTED[i] < STARTED[voice]) {
+                voice = i;
+            }
+        }
+
+        if (IS_PLAYING[voice]) {
+            stolenCount++;
+        }
+
+        VOICES[voice].start(note);
+        IS_PLAYING[voice] = true;
+        STARTED[voice] = startCount++;
+    }
+
+    public AudioFormat getFormat() {
+        return FORMAT;
+    }
+
+    public int getVoiceCount() {
+        return VOICES.length;
+    }
+
+    public int getPlayingCount() {
+        return playingCount;
+    }
+
+    public long getStolenCount() {
+        return stolenCount;
+    }
+
+    public long getDroppedCount() {
+        return droppedCount;
+    }
+}
@@ -0,0 +1,131 @@
+package com.taptiles;
+
+
+/**
+ * Draws the whole playfield onto a single Canvas each pulse. Unlike
+ * NodeRenderer, moving a tile does not change the scene graph, so no CSS or
+ * layout work is done regardless of how many tiles are visible. Colors and
+ * fonts mirror TapTiles.css.
+ */
+
+
+import java.util.Arrays;
+import javafx.geometry.VPos;
+import javafx.scene.Node;
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.paint.Color;
+import javafx.scene.paint.Paint;
+import javafx.scene.text.Font;
+import javafx.scene.text.TextAlignment;
+
+
+public class CanvasRenderer implements TileRenderer {
+    private final int GUIDE_Y = 40;     // background for key guide height
+    private final int SCORE_Y = 100;    // height of the area showing the score
+
+    private final GameEngine ENGINE;
+
+    private final int WIN_X;            // playfield width
+    private final int WIN_Y;            // playfield height
+    private final int TILE_X;           // tile width, also the key guide width
+
+    private final String[] KEYS_TEXT;   // label of the key guide of each lane
+    private final Paint[] KEYS_FILL;    // color of the key guide of each lane
+
+    private final Canvas CANVAS;
+    private final GraphicsContext GC;
+
+    private String scoreText;
+
+    /**
+     * Creates the canvas for the playfield.
+     *
+     * @param engine    engine to draw
+     * @param keys      characters of the keys for each lane
+     * @param width     width of the playfield
+     * @param height    height of the playfield
+     */
+    public CanvasRenderer(GameEngine engine, String keys, int width, int height) {
+        ENGINE = engine;
+        WIN_X = width;
+        WIN_Y = height;
+        TILE_X = width / engine.getLaneCount();
+
+        KEYS_TEXT = new String[engine.getLaneCount()];
+        KEYS_FILL = new Paint[engine.getLaneCount()];
+        for (int i = 0; i < KEYS_TEXT.length; i++) {
+            KEYS_TEXT[i] = String.valueOf(keys.charAt(i));
+        }
+        Arrays.fill(KEYS_FILL, Color.LIGHTGRAY);
+
+        scoreText = "";
+
+        CANVAS = new Canvas(width, height);
+        GC = CANVAS.getGraphicsContext2D();
+        GC.setFont(Font.font(24));
+        GC.setTextAlign(TextAlignment.CENTER);
+        GC.setLineWidth(1);
+        GC.setStroke(Color.WHITE);
+    }
+
+    @Override
+    public Node getView() {
+        return CANVAS;
+    }
+
+    /**
+     * Draws the lanes, key guides, tiles and score, in that order.
+     *
+     * @param alpha fraction of a step elapsed since the last step
+     */
+    @Override
+    public void render(double alpha) {
+        GC.setFill(Color.WHITE);
+        GC.fillRect(0, 0, WIN_X, WIN_Y);
+
+        GC.setTextBaseline(VPos.BOTTOM);
+        for (int i = 0; i < KEYS_TEXT.length; i++) {
+            GC.setFill(KEYS_FILL[i]);
+            GC.fillRect(i * TILE_X, WIN_Y - GUIDE_Y, TILE_X, GUIDE_Y);
+
+            GC.setFill(Color.BLACK);
+            GC.fillText(KEYS_TEXT[i], i * TILE_X + TILE_X / 2.0, WIN_Y);
+        }
+
+        GC.setFill(Color.BLACK);
+        for (int lane = 0; lane < KEYS_TEXT.length; lane++) {
+            for (int n = 0; n < ENGINE.getActiveCount(lane); n++) {
+                int tile = ENGINE.getActiveTile(lane, n);
+                double y = ENGINE.getTileY(tile, alpha);
+                double height = ENGINE.getTileHeight(tile);
+
+                // skips tiles waiting outside the visible area
+                if (y > -height && y < WIN_Y) {
+                    GC.fillRect(lane * TILE_X, y, TILE_X, height);
+                }
+            }
+        }
+
+        GC.setTextBaseline(VPos.CENTER);
+        GC.fillText(scoreText, WIN_X / 2.0, SCORE_Y / 2.0);
+        GC.strokeText(scoreText, WIN_X / 2.0, SCORE_Y / 2.0);
+    }
+
+    /**
+     * Changes the color of the key guide of a lane, drawn by the next render
+     * like the score.
+     *
+     * @param lane  lane of the key guide
+     * @param fill  new color of the key guide
+     */
+    @Override
+    public void setGuideFill(int lane, Paint fill) {
+        KEYS_FILL[lane] = fill;
+    }
+
+    @Override
+    public void setScore(int score) {
+        scoreText = Integer.toString(score);
+    }
+}
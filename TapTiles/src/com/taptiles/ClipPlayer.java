@@ -0,0 +1,118 @@
+package com.taptiles;
+
+
+/**
+ * Plays each note through its own AudioClip, leaving latency and polyphony to
+ * the JavaFX media stack. Used when taptiles.audio is "clip", or when no
+ * audio line can be opened for AudioMixer.
+ *
+ * Clips are created in parallel by loadAll or preload, or on first use for a
+ * note not reached yet. Clips are never released, since the media stack may
+ * still be playing them.
+ */
+
+
+import java.net.URL;
+import java.util.BitSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import javafx.scene.media.AudioClip;
+
+
+public class ClipPlayer implements NotePlayer {
+    private static final int LOADER_THREADS = Runtime.getRuntime().availableProcessors();
+
+    private final URL[] URLS;
+    private final AtomicReferenceArray<AudioClip> CLIPS;
+    private final Object[] LOCKS;       // held while creating each clip
+
+    /**
+     * Creates a player with no clip loaded yet.
+     *
+     * @param noteUrls  wav file of each note, in the order of their indexes
+     */
+    public ClipPlayer(URL[] noteUrls) {
+        URLS = noteUrls.clone();
+        CLIPS = new AtomicReferenceArray<>(noteUrls.length);
+
+        LOCKS = new Object[noteUrls.length];
+        for (int i = 0; i < LOCKS.length; i++) {
+            LOCKS[i] = new Object();
+        }
+    }
+
+    /**
+     * Returns the clip of a note, creating it if needed.
+     *
+     * @param note  index of the note, from 1
+     * @return      clip of the note
+     */
+    private AudioClip load(int note) {
+        AudioClip clip = CLIPS.get(note - 1);
+        if (clip != null) {
+            return clip;
+        }
+
+        synchronized (LOCKS[note - 1]) {
+            clip = CLIPS.get(note - 1);
+            if (clip == null) {
+                clip = new AudioClip(URLS[note - 1].toString());
+                CLIPS.set(note - 1, clip);
+            }
+            return clip;
+        }
+    }
+
+    @Override
+    public CompletableFuture<Void> loadAll() {
+        BitSet notes = new BitSet();
+        notes.set(1, URLS.length + 1);
+        return preload(notes);
+    }
+
+    @Override
+    public CompletableFuture<Void> preload(BitSet notes) {
+        BitSet loaded = (BitSet) notes.clone();     // only the notes of the bank
+        loaded.clear(0);
+        loaded.clear(URLS.length + 1, Math.max(loaded.length(), URLS.length + 1));
+
+        ExecutorService loaders = Executors.newFixedThreadPool(
+                Math.max(1, Math.min(LOADER_THREADS, loaded.cardinality())), task -> {
+                    Thread thread = new Thread(task, "clip-loader");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+
+        CompletableFuture<?>[] loads = new CompletableFuture<?>[loaded.cardinality()];
+        int i = 0;
+        for (int note = loaded.nextSetBit(1); note >= 0; note = loaded.nextSetBit(note + 1)) {
+            int clip = note;
+            loads[i++] = CompletableFuture.runAsync(() -> load(clip), loaders);
+        }
+        loaders.shutdown();
+
+        return CompletableFuture.allOf(loads);
+    }
+
+    @Override
+    public void play(int note) {
+        load(note).play();
+    }
+
+    @Override
+    public void close() {
+        for (int i = 0; i < CLIPS.length(); i++) {
+            AudioClip clip = CLIPS.get(i);
+            if (clip != null) {
+                clip.stop();
+            }
+        }
+    }
+
+    @Override
+    public String summary() {
+        return "audio clips " + URLS.length;
+    }
+}
@@ -0,0 +1,258 @@
+package com.taptiles;
+
+
+/**
+ * Binary form of a text sheet, written next to it so that later loads are a
+ * single read without parsing. The file starts with a header:
+ *
+ *   magic "TTSH", format version, note count, length, modification time and
+ *   CRC32 of the text sheet, length and CRC32 of the notes
+ *
+ * followed by the notes as unsigned varints, one byte each for the notes
+ * bundled with the game. A compiled sheet is used only while the length and
+ * CRC32 of its text sheet match, so an edit that keeps the length and
+ * modification time, as on file systems with coarse times or after a
+ * restore, is never served stale. Hashing is a plain read of the text sheet,
+ * much cheaper than parsing it. A text sheet that was touched but not
+ * changed gets its new modification time stored.
+ */
+
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+
+public class CompiledSheet {
+    public static final String EXTENSION = ".tts";
+
+    private static final int MAGIC = 0x54545348;    // "TTSH"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 40;
+    private static final int MTIME_OFFSET = 20;     // offset of the mtime
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private CompiledSheet() {
+    }
+
+    /**
+     * Returns the compiled sheet file of a text sheet, the whole name of the
+     * text sheet followed by EXTENSION, so sheets such as "song.txt" and
+     * "song" never share a compiled sheet.
+     *
+     * @param sheetFile text sheet
+     * @return          file for its compiled sheet
+     */
+    public static File fileFor(File sheetFile) {
+        return new File(sheetFile.getParentFile(), sheetFile.getName() + EXTENSION);
+    }
+
+    /**
+     * Reads the compiled sheet of a text sheet, if it is up to date.
+     *
+     * @param sheetFile text sheet
+     * @param noteCount number of available notes, indexes must be from 1 to
+     *                  noteCount
+     * @return          the sheet, or null if there is no compiled sheet or it
+     *                  does not match the text sheet
+     * @throws IOException  if a file cannot be read
+     */
+    public static Sheet read(File sheetFile, int noteCount) throws IOException {
+        File compiledFile = fileFor(sheetFile);
+
+        if (!compiledFile.isFile() || compiledFile.length() < HEADER_SIZE) {
+            return null;
+        }
+
+        ByteBuffer data = ByteBuffer.wrap(Files.readAllBytes(compiledFile.toPath()));
+
+        if (data.getInt() != MAGIC || data.getInt() != VERSION) {
+            return null;
+        }
+
+        int size = data.getInt();
+        long sourceLength = data.getLong();
+        long sourceModified = data.getLong();
+        int sourceHash = data.getInt();
+        int notesLength = data.getInt();
+        int notesHash = data.getInt();
+
+        if (size < 1 || notesLength != data.remaining()
+                || sourceLength != sheetFile.length()) {
+            return null;
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(data.array(), HEADER_SIZE, notesLength);
+        if ((int) crc.getValue() != notesHash) {
+            return null;
+        }
+
+        int[] notes = decode(data, size, noteCount);
+        if (notes == null) {
+            return null;
+        }
+
+        long modified = sheetFile.lastModified();
+        if (hash(sheetFile) != sourceHash) {
+            return null;
+        }
+        if (sourceModified != modified) {
+            updateModified(compiledFile, modified);
+        }
+
+        return new ArraySheet(notes);
+    }
+
+    /**
+     * Writes the compiled sheet of a text sheet. The file is written beside
+     * and then moved over the old one, so a failed write never leaves a
+     * broken compiled sheet. The length and modification time of the text
+     * sheet are those taken before it was read, so an edit made while it was
+     * parsed is not stamped on the old notes.
+     *
+     * @param sheetFile         text sheet
+     * @param sourceLength      length of the text sheet before it was read
+     * @param sourceModified    modification time of the text sheet before it
+     *                          was read
+     * @param sourceHash        CRC32 of the text sheet
+     * @param sheet             notes parsed from the text sheet
+     * @throws IOException  if the file cannot be written
+     */
+    public static void write(File sheetFile, long sourceLength, long sourceModified,
+            int sourceHash, Sheet sheet) throws IOException {
+        ByteBuffer notes = encode(sheet);
+        CRC32 crc = new CRC32();
+        crc.update(notes.array(), 0, notes.limit());
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC);
+        header.putInt(VERSION);
+        header.putInt(sheet.size());
+        header.putLong(sourceLength);
+        header.putLong(sourceModified);
+        header.putInt(sourceHash);
+        header.putInt(notes.limit());
+        header.putInt((int) crc.getValue());
+        header.flip();
+
+        File compiledFile = fileFor(sheetFile);
+        File tempFile = new File(compiledFile.getPath() + ".tmp");
+
+        try (FileChannel channel = FileChannel.open(tempFile.toPath(),
+                StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (header.hasRemaining() || notes.hasRemaining()) {
+                channel.write(new ByteBuffer[] { header, notes });
+            }
+        }
+
+        Files.move(tempFile.toPath(), compiledFile.toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Computes the CRC32 of a file.
+     *
+     * @param file  file to hash
+     * @return      CRC32 of the contents of the file
+     * @throws IOException  if the file cannot be read
+     */
+    public static int hash(File file) throws IOException {
+        CRC32 crc = new CRC32();
+        ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+        try (FileChannel channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.READ)) {
+            while (channel.read(buffer) != -1) {
+                buffer.flip();
+                crc.update(buffer);
+                buffer.clear();
+            }
+        }
+
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Encodes the notes of a sheet as unsigned varints, 7 bits per byte with
+     * the high bit set on all but the last byte of a note.
+     *
+     * @param sheet sheet to encode, its size must be known
+     * @return      buffer of the encoded notes, from 0 to its limit
+     */
+    private static ByteBuffer encode(Sheet sheet) {
+        ByteBuffer notes = ByteBuffer.allocate(sheet.size() * 5);
+
+        for (int i = 0; i < sheet.size(); i++) {
+            int note = sheet.getNote(i);
+
+            while ((note & ~0x7F) != 0) {
+                notes.put((byte) (note & 0x7F | 0x80));
+                note >>>= 7;
+            }
+            notes.put((byte) note);
+        }
+
+        notes.flip();
+        return notes;
+    }
+
+    /**
+     * Decodes varint notes, checking that each is an available note.
+     *
+     * @param data      encoded notes, exactly size of them
+     * @param size      number of notes
+     * @param noteCount number of available notes
+     * @return          the notes, or null if they do not fit the note count
+     */
+    private static int[] decode(ByteBuffer data, int size, int noteCount) {
+        int[] notes = new int[size];
+
+        for (int i = 0; i < size; i++) {
+            int note = 0;
+            int shift = 0;
+            byte b;
+
+            do {
+                if (!data.hasRemaining() || shift > 28) {
+                    return null;
+                }
+                b = data.get();
+                note |= (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+
+            if (note < 1 || note > noteCount) {
+                return null;
+            }
+            notes[i] = note;
+        }
+
+        return data.hasRemaining() ? null : notes;
+    }
+
+    /**
+     * Updates the modification time of the text sheet stored in a compiled
+     * sheet.
+     *
+     * @param compiledFile  compiled sheet
+     * @param modified      new modification time
+     * @throws IOException  if the file cannot be written
+     */
+    private static void updateModified(File compiledFile, long modified) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(8);
+        buffer.putLong(modified);
+        buffer.flip();
+
+        try (FileChannel channel = FileChannel.open(compiledFile.toPath(),
+                StandardOpenOption.WRITE)) {
+            channel.write(buffer, MTIME_OFFSET);
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package com.taptiles;
+
+
+/**
+ * Per-pulse measurements of the game loop: time spent handling the pulse,
+ * interval between pulses, size of the tile pool, number of tiles waiting to
+ * be hit and time spent in garbage collection. Values are kept in histograms
+ * so that recording neither allocates nor grows with the length of a game.
+ */
+
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.Locale;
+
+
+public class FrameStats {
+    private final Histogram PULSE_NANOS;    // interval between pulses
+    private final Histogram HANDLE_NANOS;   // time spent handling a pulse
+    private final Histogram TILE_COUNT;     // size of the tile pool
+    private final Histogram QUEUE_DEPTH;    // tiles waiting to be hit
+    private final Histogram GC_NANOS;       // gc time between two pulses
+
+    private final GarbageCollectorMXBean[] GC_BEANS;
+
+    private boolean isEnabled;
+
+    private long gcMillis;      // total gc time as of the last pulse
+
+    public FrameStats() {
+        PULSE_NANOS = new Histogram();
+        HANDLE_NANOS = new Histogram();
+        TILE_COUNT = new Histogram();
+        QUEUE_DEPTH = new Histogram();
+        GC_NANOS = new Histogram();
+
+        // copied to an array to avoid an iterator each pulse
+        List<GarbageCollectorMXBean> beans = ManagementFactory.getGarbageCollectorMXBeans();
+        GC_BEANS = beans.toArray(new GarbageCollectorMXBean[beans.size()]);
+
+        gcMillis = totalGcMillis();
+    }
+
+    /**
+     * Returns the time spent in garbage collection since the JVM started.
+     *
+     * @return  collection time in milliseconds
+     */
+    private long totalGcMillis() {
+        long total = 0;
+        for (GarbageCollectorMXBean bean : GC_BEANS) {
+            total += Math.max(bean.getCollectionTime(), 0);
+        }
+        return total;
+    }
+
+    /**
+     * Records the measurements of a single pulse. Does nothing while
+     * disabled.
+     *
+     * @param pulseNanos    time since the previous pulse
+     * @param handleNanos   time spent handling this pulse
+     * @param tileCount     number of pooled tiles
+     * @param queueDepth    number of tiles waiting to be hit
+     */
+    public void record(long pulseNanos, long handleNanos, int tileCount, int queueDepth) {
+        if (!isEnabled) {
+            return;
+        }
+
+        long total = totalGcMillis();
+
+        PULSE_NANOS.record(pulseNanos);
+        HANDLE_NANOS.record(handleNanos);
+        TILE_COUNT.record(tileCount);
+        QUEUE_DEPTH.record(queueDepth);
+        GC_NANOS.record((total - gcMillis) * 1_000_000L);
+
+        gcMillis = total;
+    }
+
+    /**
+     * Clears all recorded measurements.
+     */
+    public void reset() {
+        PULSE_NANOS.reset();
+        HANDLE_NANOS.reset();
+        TILE_COUNT.reset();
+        QUEUE_DEPTH.reset();
+        GC_NANOS.reset();
+
+        gcMillis = totalGcMillis();
+    }
+
+    /**
+     * Turns recording on or off. Turning it on discards gc time spent while
+     * recording was off.
+     *
+     * @param enabled   true to record pulses
+     */
+    public void setEnabled(boolean enabled) {
+        if (enabled && !isEnabled) {
+            gcMillis = totalGcMillis();
+        }
+        isEnabled = enabled;
+    }
+
+    public boolean isEnabled() {
+        return isEnabled;
+    }
+
+    /**
+     * Returns a summary of the recorded measurements, one line each.
+     *
+     * @return  text of the summary
+     */
+    public String summary() {
+        return String.format(Locale.ROOT, "%d pulses%n", PULSE_NANOS.getCount())
+                + PULSE_NANOS.formatMillis("pulse") + System.lineSeparator()
+                + HANDLE_NANOS.formatMillis("handle") + System.lineSeparator()
+                + TILE_COUNT.formatCount("tiles") + System.lineSeparator()
+                + QUEUE_DEPTH.formatCount("queue") + System.lineSeparator()
+                + GC_NANOS.formatMillis("gc")
+                + String.format(Locale.ROOT, " (total %.0f ms)", GC_NANOS.getSum() / 1e6);
+    }
+}
@@ -0,0 +1,551 @@
+package com.taptiles;
+
+
+/**
+ * Core game logic of TapTiles, independent of JavaFX. Owns the tiles, lanes,
+ * score and speed as plain data so that the game can be simulated without a
+ * Stage. The UI only forwards elapsed time and key presses to the engine and
+ * draws the tiles from its state.
+ *
+ * Positions are in pixels, measured downwards from the top of the playfield.
+ * Tiles come from a pool that grows whenever every tile is in play, so the
+ * number of tiles on screen is only limited by the tile height and speed.
+ * A tile is out of play when placed at -tileHeight.
+ *
+ * Tiles are spawned in random lanes right above the newest tile, unless a
+ * Timeline is set. Tiles then come from its events instead: a cursor moves
+ * through the events sorted by time each step, spawning those that are due
+ * with a height matching their duration, and the game ends once all of them
+ * are hit. Since events in different lanes may be due at about the same
+ * time, a press then hits the frontmost tile of its lane if it is within
+ * HIT_WINDOW of the frontmost tile overall, in any order.
+ */
+
+
+import java.util.Arrays;
+import java.util.Random;
+
+
+public class GameEngine {
+    /**
+     * Outcome of a key press.
+     */
+    public enum Judgement {
+        IGNORED,    // game is not running or no tile is waiting to be hit
+        HIT,        // frontmost tile, or a timed tile due with it, was in the lane
+        MISS        // no such tile was in the lane of the key, ends the game
+    }
+
+    // fixed simulation rate, independent of the display refresh rate
+    public static final int TICK_RATE = 120;
+    public static final long TICK_NANOS = 1_000_000_000L / TICK_RATE;
+
+    // upper bound on time simulated per call to advance, avoids a burst of
+    // steps after a long hitch (e.g. window dragged or system suspended)
+    public static final long MAX_FRAME_NANOS = 250_000_000L;
+
+    // ms a timed tile may be behind the frontmost tile and still be hit
+    public static final int HIT_WINDOW = 150;
+
+    // tile speed in pixels per second
+    private final int[] SPEED_MOVE = { 120, 180, 300, 600, 900 };
+
+    private final int[] SPEED_LEVEL = { 10, 25, 45, 75, 110 };
+
+    private final int LANE_COUNT;       // number of lanes
+    private final int TILE_HEIGHT;      // tile height
+    private final int FIELD_HEIGHT;     // playfield height
+
+    private final Random RANDOM;
+
+    // used to track the frontmost scrolling tile
+    private final TileQueue TILE_QUEUE;
+
+    // tiles in play in each lane, frontmost first
+    private final TileQueue[] LANE_QUEUE;
+
+    private int tileCount;          // number of pooled tiles
+
+    private double[] tilePos;       // y-position of each tile
+    private double[] tilePosPrev;   // position as of the previous step
+    private int[] tileLane;         // lane of each tile
+    private double[] tileHeight;    // height of each tile
+    private int[] tileEvent;        // timeline event of each timed tile
+
+    private int[] freeTiles;        // stack of tiles not in play
+    private int freeCount;
+
+    private Timeline timeline;      // events to play, or null for random
+    private int cursor;             // next event of the timeline to spawn
+    private long tick;              // steps since the game started
+    private int hitEvent;           // event of the timed tile hit last, or -1
+
+    private boolean isRunning;
+
+    private int speed;          // index of SPEED_MOVE
+
+    private int score;
+    private int hiScore;
+
+    private long accumulator;   // elapsed time not yet simulated
+
+    /**
+     * Creates an engine with an initial pool of tiles.
+     *
+     * @param laneCount     number of lanes
+     * @param poolSize      number of tiles to allocate up front, the pool
+     *                      grows when more are needed
+     * @param tileHeight    height of a tile in pixels
+     * @param fieldHeight   height of the playfield in pixels
+     * @param random        source of the lane for each new tile
+     */
+    public GameEngine(int laneCount, int poolSize, int tileHeight,
+            int fieldHeight, Random random) {
+        LANE_COUNT = laneCount;
+        TILE_HEIGHT = tileHeight;
+        FIELD_HEIGHT = fieldHeight;
+        RANDOM = random;
+
+        tileCount = Math.max(poolSize, 1);
+        tilePos = new double[tileCount];
+        tilePosPrev = new double[tileCount];
+        tileLane = new int[tileCount];
+        this.tileHeight = new double[tileCount];
+        tileEvent = new int[tileCount];
+        freeTiles = new int[tileCount];
+
+        TILE_QUEUE = new TileQueue(tileCount);
+
+        LANE_QUEUE = new TileQueue[LANE_COUNT];
+        for (int i = 0; i < LANE_COUNT; i++) {
+            LANE_QUEUE[i] = new TileQueue(tileCount);
+        }
+
+        releaseAll();
+    }
+
+    /**
+     * Resets all values to default and starts a new game.
+     */
+    public void reset() {
+        releaseAll();
+
+        score = 0;
+        speed = 0;
+        accumulator = 0;
+        cursor = 0;
+        tick = 0;
+        hitEvent = -1;
+        isRunning = true;
+
+        if (timeline == null) {
+            generateRandomTile(-TILE_HEIGHT);
+        }
+    }
+
+    /**
+     * Sets the events to play from the next game on.
+     *
+     * @param timeline  events to spawn tiles from, or null for random tiles
+     * @throws IllegalArgumentException if the timeline uses more lanes than
+     *                                  the engine has
+     */
+    public void setTimeline(Timeline timeline) {
+        if (timeline != null && timeline.getLaneCount() > LANE_COUNT) {
+            throw new IllegalArgumentException("Timeline uses "
+                    + timeline.getLaneCount() + " lanes of " + LANE_COUNT);
+        }
+
+        this.timeline = timeline;
+    }
+
+    public Timeline getTimeline() {
+        return timeline;
+    }
+
+    /**
+     * Ends the current game and updates the high score.
+     */
+    public void end() {
+        isRunning = false;
+
+        if (score > hiScore) {
+            hiScore = score;
+        }
+    }
+
+    /**
+     * Takes every tile out of play.
+     */
+    private void releaseAll() {
+        TILE_QUEUE.clear();
+        for (TileQueue laneQueue : LANE_QUEUE) {
+            laneQueue.clear();
+        }
+
+        freeCount = 0;
+        for (int i = tileCount - 1; i >= 0; i--) {
+            tileLane[i] = 0;
+            tileHeight[i] = TILE_HEIGHT;
+            placeTile(i, -TILE_HEIGHT);
+            freeTiles[freeCount++] = i;
+        }
+    }
+
+    /**
+     * Doubles the number of pooled tiles. Only happens while the number of
+     * tiles in play is higher than ever before, so a game settles into
+     * spawning without allocating.
+     */
+    private void growPool() {
+        int newCount = tileCount * 2;
+
+        tilePos = Arrays.copyOf(tilePos, newCount);
+        tilePosPrev = Arrays.copyOf(tilePosPrev, newCount);
+        tileLane = Arrays.copyOf(tileLane, newCount);
+        tileHeight = Arrays.copyOf(tileHeight, newCount);
+        tileEvent = Arrays.copyOf(tileEvent, newCount);
+        freeTiles = Arrays.copyOf(freeTiles, newCount);
+
+        for (int i = newCount - 1; i >= tileCount; i--) {
+            tileHeight[i] = TILE_HEIGHT;
+            placeTile(i, -TILE_HEIGHT);
+            freeTiles[freeCount++] = i;
+        }
+
+        tileCount = newCount;
+    }
+
+    /**
+     * Moves a tile to the given position without interpolating from its
+     * previous position, e.g. when a tile is hit or reset.
+     *
+     * @param tileIndex index of the tile
+     * @param y         new y-position of the tile
+     */
+    private void placeTile(int tileIndex, double y) {
+        tilePos[tileIndex] = y;
+        tilePosPrev[tileIndex] = y;
+    }
+
+    /**
+     * Changes the speed of the tile according to the score.
+     */
+    private void adjustSpeed() {
+        for (int i = 0; i < SPEED_LEVEL.length - 1; i++) {
+            if (score >= SPEED_LEVEL[i] && score < SPEED_LEVEL[i + 1]) {
+                speed = i + 1;
+            }
+        }
+    }
+
+    /**
+     * Puts a tile from the pool into play in a random lane.
+     *
+     * @param y y-position of the new tile
+     */
+    private void generateRandomTile(double y) {
+        spawnTile(RANDOM.nextInt(LANE_COUNT), TILE_HEIGHT, y);
+        adjustSpeed();
+    }
+
+    /**
+     * Puts the tiles of all timeline events due by the current step into
+     * play. Each tile is placed where it would be had it entered the
+     * playfield exactly at the time of its event.
+     *
+     * @return  false once every event has been spawned and hit
+     */
+    private boolean spawnEvents() {
+        double now = tick * 1000.0 / TICK_RATE;     // time of the step in ms
+        double pixelsPerMilli = timeline.getSpeed() / 1000.0;
+
+        while (cursor < timeline.size() && timeline.getTime(cursor) <= now) {
+            double height = timeline.getDuration(cursor) * pixelsPerMilli;
+            double y = (now - timeline.getTime(cursor)) * pixelsPerMilli - height;
+
+            int tileIndex = spawnTile(timeline.getLane(cursor), height, y);
+            tileEvent[tileIndex] = cursor;
+            cursor++;
+        }
+
+        return cursor < timeline.size() || !TILE_QUEUE.isEmpty();
+    }
+
+    /**
+     * Puts a tile from the pool into play.
+     *
+     * @param lane      lane of the new tile
+     * @param height    height of the new tile
+     * @param y         y-position of the new tile
+     * @return          index of the new tile
+     */
+    private int spawnTile(int lane, double height, double y) {
+        if (freeCount == 0) {
+            growPool();
+        }
+
+        int tileIndex = freeTiles[--freeCount];
+
+        tileLane[tileIndex] = lane;
+        tileHeight[tileIndex] = height;
+        placeTile(tileIndex, y);
+
+        TILE_QUEUE.add(lane, tileIndex);
+        LANE_QUEUE[lane].add(lane, tileIndex);
+        return tileIndex;
+    }
+
+    /**
+     * Advances the game by a single fixed step of TICK_NANOS.
+     *
+     * @return  false if the game is over
+     */
+    public boolean step() {
+        if (!isRunning) {
+            return false;
+        }
+
+        int pixelsPerSecond = timeline == null ? SPEED_MOVE[speed] : timeline.getSpeed();
+        double move = (double) pixelsPerSecond / TICK_RATE;
+
+        for (int n = 0; n < TILE_QUEUE.size(); n++) {
+            int i = TILE_QUEUE.getTile(n);
+
+            // ends game if tile is no longer visible from bottom
+            if (tilePos[i] >= FIELD_HEIGHT) {
+                end();
+                return false;
+            }
+
+            tilePosPrev[i] = tilePos[i];
+            tilePos[i] += move;
+        }
+        tick++;
+
+        if (timeline != null) {
+            if (!spawnEvents()) {   // every event was hit
+                end();
+                return false;
+            }
+            return true;
+        }
+
+        // designates next tile to move if none is or the newest tile is
+        // already fully in, placing it right above to avoid space between
+        if (TILE_QUEUE.isEmpty()) {
+            generateRandomTile(-TILE_HEIGHT);
+        }
+        else {
+            int newTile = TILE_QUEUE.getTile(TILE_QUEUE.size() - 1);
+
+            if (tilePos[newTile] >= 0) {
+                generateRandomTile(tilePos[newTile] - TILE_HEIGHT);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Runs as many fixed steps as fit in the elapsed time, carrying over the
+     * remainder to the next call.
+     *
+     * @param elapsedNanos  time since the previous call in nanoseconds
+     * @return              false if the game is over
+     */
+    public boolean advance(long elapsedNanos) {
+        accumulator += Math.min(elapsedNanos, MAX_FRAME_NANOS);
+
+        while (accumulator >= TICK_NANOS) {
+            if (!step()) {
+                return false;
+            }
+            accumulator -= TICK_NANOS;
+        }
+        return isRunning;
+    }
+
+    /**
+     * Judges a key press against the frontmost tile, or with a timeline
+     * against the frontmost tile of the lane, see isDue.
+     *
+     * @param lane  lane of the key pressed
+     * @return      outcome of the press
+     */
+    public Judgement press(int lane) {
+        if (!isRunning || TILE_QUEUE.isEmpty()) {
+            return Judgement.IGNORED;
+        }
+
+        if (lane == TILE_QUEUE.peekLane()) {
+            // frontmost tile overall is also the frontmost of its lane
+            TILE_QUEUE.remove();
+            hit(lane);
+            return Judgement.HIT;
+        }
+
+        if (timeline != null && isDue(LANE_QUEUE[lane].peekTile())) {
+            TILE_QUEUE.remove(TILE_QUEUE.indexOf(LANE_QUEUE[lane].peekTile()));
+            hit(lane);
+            return Judgement.HIT;
+        }
+
+        end();
+        return Judgement.MISS;
+    }
+
+    /**
+     * Checks whether a timed tile may be hit before the frontmost tile, its
+     * bottom being at most HIT_WINDOW behind the bottom of the frontmost.
+     *
+     * @param tileIndex index of the tile, or -1 for none
+     * @return          true if the tile may be hit
+     */
+    private boolean isDue(int tileIndex) {
+        if (tileIndex < 0) {
+            return false;
+        }
+
+        int front = TILE_QUEUE.peekTile();
+        double window = HIT_WINDOW * timeline.getSpeed() / 1000.0;
+
+        return tilePos[tileIndex] + tileHeight[tileIndex]
+                >= tilePos[front] + tileHeight[front] - window;
+    }
+
+    /**
+     * Removes the frontmost tile of a lane from play and scores it. The tile
+     * must already be removed from TILE_QUEUE.
+     *
+     * @param lane  lane of the tile hit
+     */
+    private void hit(int lane) {
+        int tileIndex = LANE_QUEUE[lane].peekTile();
+        LANE_QUEUE[lane].remove();
+
+        if (timeline != null) {
+            hitEvent = tileEvent[tileIndex];
+        }
+
+        tileHeight[tileIndex] = TILE_HEIGHT;
+        placeTile(tileIndex, -TILE_HEIGHT);
+        freeTiles[freeCount++] = tileIndex;
+
+        score++;
+    }
+
+    /**
+     * Returns the fraction of a step elapsed since the last step, used to
+     * interpolate tile positions when rendering.
+     *
+     * @return  value from 0 (inclusive) to 1 (exclusive)
+     */
+    public double getAlpha() {
+        return (double) accumulator / TICK_NANOS;
+    }
+
+    /**
+     * Returns the position of a tile blended between the last two steps.
+     *
+     * @param tileIndex index of the tile
+     * @param alpha     fraction of a step, 1 for the latest position
+     * @return          y-position of the tile
+     */
+    public double getTileY(int tileIndex, double alpha) {
+        return tilePosPrev[tileIndex]
+                + (tilePos[tileIndex] - tilePosPrev[tileIndex]) * alpha;
+    }
+
+    public int getTileLane(int tileIndex) {
+        return tileLane[tileIndex];
+    }
+
+    /**
+     * Returns the number of tiles in play in a lane.
+     *
+     * @param lane  lane of the tiles
+     * @return      number of tiles
+     */
+    public int getActiveCount(int lane) {
+        return LANE_QUEUE[lane].size();
+    }
+
+    /**
+     * Returns a tile in play in a lane.
+     *
+     * @param lane      lane of the tile
+     * @param position  position in the lane, 0 being the frontmost tile
+     * @return          index of the tile
+     */
+    public int getActiveTile(int lane, int position) {
+        return LANE_QUEUE[lane].getTile(position);
+    }
+
+    /**
+     * Returns the lane of the frontmost tile waiting to be hit.
+     *
+     * @return  lane of the tile, or -1 if no tile is waiting
+     */
+    public int getNextLane() {
+        return TILE_QUEUE.peekLane();
+    }
+
+    /**
+     * Returns the number of pooled tiles, in play or not. Tile indexes are
+     * below this number.
+     *
+     * @return  size of the tile pool
+     */
+    public int getTileCount() {
+        return tileCount;
+    }
+
+    /**
+     * Returns the height of a tile, which differs between tiles of a
+     * timeline.
+     *
+     * @param tileIndex index of the tile
+     * @return          height of the tile in pixels
+     */
+    public double getTileHeight(int tileIndex) {
+        return tileHeight[tileIndex];
+    }
+
+    public int getTileHeight() {
+        return TILE_HEIGHT;
+    }
+
+    public int getLaneCount() {
+        return LANE_COUNT;
+    }
+
+    public int getQueueSize() {
+        return TILE_QUEUE.size();
+    }
+
+    public int getSpeed() {
+        return speed;
+    }
+
+    /**
+     * Returns the timeline event of the tile hit last, since timed tiles may
+     * be hit out of order.
+     *
+     * @return  index of the event, or -1 if no timed tile has been hit
+     */
+    public int getHitEvent() {
+        return hitEvent;
+    }
+
+    public int getScore() {
+        return score;
+    }
+
+    public int getHiScore() {
+        return hiScore;
+    }
+
+    public boolean isRunning() {
+        return isRunning;
+    }
+}
@@ -0,0 +1,145 @@
+package com.taptiles;
+
+
+/**
+ * Histogram of non-negative long values with a fixed number of buckets, used
+ * to summarize per-pulse measurements without keeping every sample. Values
+ * below 16 are counted exactly and larger values in buckets spaced 1/16 of a
+ * power of two apart, so percentiles are within about 6% of the true value.
+ * Recording never allocates.
+ */
+
+
+import java.util.Arrays;
+import java.util.Locale;
+
+
+public class Histogram {
+    private final int SUB_BITS = 4;                 // sub-buckets as a power of two
+    private final int SUB_COUNT = 1 << SUB_BITS;    // buckets per power of two
+
+    private final long[] COUNTS;
+
+    private long count;
+    private long max;
+    private long sum;
+
+    public Histogram() {
+        COUNTS = new long[SUB_COUNT * (64 - SUB_BITS + 1)];
+    }
+
+    /**
+     * Returns the bucket of a value.
+     *
+     * @param value non-negative value
+     * @return      index in COUNTS
+     */
+    private int bucketOf(long value) {
+        if (value < SUB_COUNT) {
+            return (int) value;
+        }
+
+        int exp = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int) (value >>> (exp - SUB_BITS)) - SUB_COUNT;
+
+        return SUB_COUNT * (exp - SUB_BITS + 1) + sub;
+    }
+
+    /**
+     * Returns the largest value counted in a bucket.
+     *
+     * @param bucket    index in COUNTS
+     * @return          upper bound of the bucket
+     */
+    private long highestOf(int bucket) {
+        if (bucket < SUB_COUNT) {
+            return bucket;
+        }
+
+        int exp = bucket / SUB_COUNT + SUB_BITS - 1;
+        long sub = bucket % SUB_COUNT + SUB_COUNT;
+
+        return ((sub + 1) << (exp - SUB_BITS)) - 1;
+    }
+
+    /**
+     * Adds a value to the histogram. Negative values are counted as 0.
+     *
+     * @param value value to add
+     */
+    public void record(long value) {
+        value = Math.max(value, 0);
+
+        COUNTS[bucketOf(value)]++;
+        count++;
+        sum += value;
+        max = Math.max(max, value);
+    }
+
+    /**
+     * Returns the value below which the given percentage of recorded values
+     * fall, rounded up to the bucket containing it.
+     *
+     * @param percentile    percentage from 0 to 100
+     * @return              value at the percentile, or 0 if empty
+     */
+    public long getPercentile(double percentile) {
+        if (count == 0) {
+            return 0;
+        }
+
+        long rank = Math.max(1, (long) Math.ceil(count * percentile / 100.0));
+        long seen = 0;
+
+        for (int i = 0; i < COUNTS.length; i++) {
+            seen += COUNTS[i];
+
+            if (seen >= rank) {
+                return Math.min(highestOf(i), max);
+            }
+        }
+        return max;
+    }
+
+    /**
+     * Returns a line with the p50, p99 and max of a histogram of
+     * nanoseconds, in milliseconds.
+     *
+     * @param name  label at the start of the line
+     * @return      text of the line
+     */
+    public String formatMillis(String name) {
+        return String.format(Locale.ROOT, "%-6s p50 %6.2f  p99 %6.2f  max %6.2f ms",
+                name, getPercentile(50) / 1e6, getPercentile(99) / 1e6, max / 1e6);
+    }
+
+    /**
+     * Returns a line with the p50, p99 and max of a histogram of counts.
+     *
+     * @param name  label at the start of the line
+     * @return      text of the line
+     */
+    public String formatCount(String name) {
+        return String.format(Locale.ROOT, "%-6s p50 %6d  p99 %6d  max %6d",
+                name, getPercentile(50), getPercentile(99), max);
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getMax() {
+        return max;
+    }
+
+    public long getSum() {
+        return sum;
+    }
+
+    public void reset() {
+        Arrays.fill(COUNTS, 0);
+        count = 0;
+        max = 0;
+        sum = 0;
+    }
+}
@@ -0,0 +1,85 @@
+package com.taptiles;
+
+
+/**
+ * Latency of taps, from the arrival of a KeyEvent to the judgement of the
+ * press and to the dispatch of its note to the audio backend. Times are
+ * taken with System.nanoTime and kept in histograms, so recording does not
+ * allocate.
+ */
+
+
+import java.util.Locale;
+
+
+public class LatencyStats {
+    private final Histogram JUDGE_NANOS;    // press arrival to judgement
+    private final Histogram SOUND_NANOS;    // sound event arrival to dispatch
+    private final Histogram TAP_NANOS;      // press arrival to dispatch
+
+    private boolean isEnabled;
+
+    public LatencyStats() {
+        JUDGE_NANOS = new Histogram();
+        SOUND_NANOS = new Histogram();
+        TAP_NANOS = new Histogram();
+    }
+
+    /**
+     * Records the time taken to judge a key press. Does nothing while
+     * disabled.
+     *
+     * @param pressNanos    arrival of the KeyEvent of the press
+     * @param judgedNanos   time the engine returned its judgement
+     */
+    public void recordJudgement(long pressNanos, long judgedNanos) {
+        if (isEnabled) {
+            JUDGE_NANOS.record(judgedNanos - pressNanos);
+        }
+    }
+
+    /**
+     * Records the time taken to dispatch a note. Does nothing while
+     * disabled.
+     *
+     * @param pressNanos        arrival of the KeyEvent of the press
+     * @param eventNanos        arrival of the KeyEvent playing the note,
+     *                          either the press or the release
+     * @param dispatchedNanos   time the audio backend accepted the note
+     */
+    public void recordSound(long pressNanos, long eventNanos, long dispatchedNanos) {
+        if (isEnabled) {
+            SOUND_NANOS.record(dispatchedNanos - eventNanos);
+            TAP_NANOS.record(dispatchedNanos - pressNanos);
+        }
+    }
+
+    /**
+     * Clears all recorded latencies.
+     */
+    public void reset() {
+        JUDGE_NANOS.reset();
+        SOUND_NANOS.reset();
+        TAP_NANOS.reset();
+    }
+
+    public void setEnabled(boolean enabled) {
+        isEnabled = enabled;
+    }
+
+    public boolean isEnabled() {
+        return isEnabled;
+    }
+
+    /**
+     * Returns a summary of the recorded latencies, one line each.
+     *
+     * @return  text of the summary
+     */
+    public String summary() {
+        return String.format(Locale.ROOT, "%d taps%n", TAP_NANOS.getCount())
+                + JUDGE_NANOS.formatMillis("judge") + System.lineSeparator()
+                + SOUND_NANOS.formatMillis("sound") + System.lineSeparator()
+                + TAP_NANOS.formatMillis("tap");
+    }
+}
@@ -0,0 +1,243 @@
+package com.taptiles;
+
+
+/**
+ * Sheet read on demand from a memory-mapped file, for sheets too large to
+ * parse up front. Notes are validated the first time they are read, and the
+ * byte offset of every INDEX_STRIDE-th note is kept so that a position can be
+ * found again without reading the file from its start. Playing reads notes in
+ * order, which only moves a cursor forward, so the heap holds a small offset
+ * index and never the notes themselves.
+ *
+ * A note that turns out to be invalid while playing ends the sheet before it,
+ * so the sheet repeats from its start instead of failing mid-game, unless
+ * invalid notes are skipped.
+ */
+
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+
+public class MappedSheet implements Sheet {
+    private static final int INDEX_STRIDE = 4096;   // notes between offsets
+
+    private static final int END = 0;               // parse results which
+    private static final int INVALID = -1;          // are not a note
+
+    private final MappedByteBuffer BUFFER;
+    private final int LIMIT;                        // size of the file
+    private final int NOTE_COUNT;                   // number of available notes
+    private final boolean SKIP_INVALID;
+
+    private int[] indexOffsets;     // offset of every INDEX_STRIDE-th note
+    private int indexCount;         // number of offsets in indexOffsets
+    private int readCount;          // number of notes validated so far
+    private int size;               // number of notes, -1 until end is read
+
+    private int cursor;             // position of the last note read
+    private int cursorNote;         // the last note read
+    private int cursorEnd;          // offset after the last note read
+
+    private int tokenStart;         // offset of the last token parsed
+    private int tokenEnd;           // offset after the last token parsed
+
+    private MappedSheet(MappedByteBuffer buffer, int noteCount, boolean skipInvalid) {
+        BUFFER = buffer;
+        LIMIT = buffer.limit();
+        NOTE_COUNT = noteCount;
+        SKIP_INVALID = skipInvalid;
+
+        indexOffsets = new int[16];
+        size = -1;
+        cursor = -1;
+    }
+
+    /**
+     * Maps a sheet file. Only the first note is validated, the rest is read
+     * while playing.
+     *
+     * @param sheetFile file containing the sheet
+     * @param noteCount number of available notes, indexes must be from 1 to
+     *                  noteCount
+     * @return          sheet reading from the file
+     * @throws IOException  if the file cannot be mapped or its first note is
+     *                      missing or invalid
+     */
+    public static MappedSheet open(File sheetFile, int noteCount) throws IOException {
+        return open(sheetFile, noteCount, false);
+    }
+
+    /**
+     * Maps a sheet file. Only the first note is validated, the rest is read
+     * while playing.
+     *
+     * @param sheetFile     file containing the sheet
+     * @param noteCount     number of available notes, indexes must be from 1
+     *                      to noteCount
+     * @param skipInvalid   true to leave invalid tokens out of the sheet,
+     *                      false to end the sheet at the first of them
+     * @return              sheet reading from the file
+     * @throws IOException  if the file cannot be mapped or has no valid first
+     *                      note
+     */
+    public static MappedSheet open(File sheetFile, int noteCount, boolean skipInvalid)
+            throws IOException {
+        MappedSheet sheet;
+
+        // the mapping stays valid after the channel is closed
+        try (FileChannel channel = FileChannel.open(sheetFile.toPath(),
+                StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Sheet is too large to map");
+            }
+
+            sheet = new MappedSheet(channel.map(FileChannel.MapMode.READ_ONLY,
+                    0, channel.size()), noteCount, skipInvalid);
+        }
+
+        int note = sheet.parseNote(0);
+        while (note == INVALID && skipInvalid) {
+            note = sheet.parseNote(sheet.tokenEnd);
+        }
+
+        if (note == END) {
+            throw new IOException("Sheet has no notes");
+        }
+        else if (note == INVALID) {
+            throw new IOException("Invalid note at byte " + sheet.tokenStart);
+        }
+
+        return sheet;
+    }
+
+    @Override
+    public int getNote(int position) {
+        if (size > 0) {
+            position %= size;
+        }
+
+        if (position == cursor) {
+            return cursorNote;
+        }
+
+        // jump to the closest known offset, unless the cursor is closer
+        int index = Math.min(position / INDEX_STRIDE, indexCount - 1);
+        if (index >= 0 && (position < cursor || index * INDEX_STRIDE - 1 > cursor)) {
+            cursor = index * INDEX_STRIDE - 1;
+            cursorEnd = indexOffsets[index];
+        }
+        else if (position < cursor) {
+            cursor = -1;
+            cursorEnd = 0;
+        }
+
+        while (cursor < position) {
+            if (!readNext()) {
+                return getNote(position % size);
+            }
+        }
+
+        return cursorNote;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Moves the cursor to the next note. Reaching the end of the file or an
+     * invalid note sets the size of the sheet.
+     *
+     * @return  true if the cursor moved, false if the sheet ended
+     */
+    private boolean readNext() {
+        int position = cursor + 1;
+        int note = parseNote(cursorEnd);
+
+        while (note == INVALID && SKIP_INVALID) {
+            if (position == readCount) {    // reported on the first read only
+                System.out.println("ERROR: Skipped invalid note at byte " + tokenStart);
+            }
+            note = parseNote(tokenEnd);
+        }
+
+        if (note == END || note == INVALID) {
+            if (note == INVALID) {
+                System.out.println("ERROR: Invalid note at byte " + tokenStart
+                        + ", sheet ends after " + position + " notes");
+            }
+
+            size = position;
+            return false;
+        }
+
+        if (position == readCount) {
+            if (position % INDEX_STRIDE == 0) {
+                if (indexCount == indexOffsets.length) {
+                    indexOffsets = Arrays.copyOf(indexOffsets, indexCount * 2);
+                }
+                indexOffsets[indexCount++] = tokenStart;
+            }
+            readCount++;
+        }
+
+        cursor = position;
+        cursorNote = note;
+        cursorEnd = tokenEnd;
+        return true;
+    }
+
+    /**
+     * Parses the first note at or after an offset, setting tokenStart and
+     * tokenEnd.
+     *
+     * @param offset    offset to start parsing from
+     * @return          the note, END if there are no more notes or INVALID
+     */
+    private int parseNote(int offset) {
+        while (offset < LIMIT && isSpace(BUFFER.get(offset))) {
+            offset++;
+        }
+
+        tokenStart = offset;
+        if (offset == LIMIT) {
+            tokenEnd = offset;
+            return END;
+        }
+
+        int value = 0;
+        boolean isValid = true;
+
+        for (; offset < LIMIT; offset++) {
+            byte b = BUFFER.get(offset);
+
+            if (isSpace(b)) {
+                break;
+            }
+            else if (!isValid) {
+                continue;   // rest of an invalid token
+            }
+            else if (b < '0' || b > '9') {
+                isValid = false;
+            }
+            else {
+                // checked per digit so that long tokens cannot overflow
+                value = value * 10 + (b - '0');
+                isValid = value <= NOTE_COUNT;
+            }
+        }
+
+        tokenEnd = offset;
+        return isValid && value >= 1 ? value : INVALID;
+    }
+
+    private static boolean isSpace(byte b) {
+        return b == ' ' || b == '\n' || b == '\r' || b == '\t';
+    }
+}
@@ -0,0 +1,685 @@
+package com.taptiles;
+
+
+/**
+ * Converts the notes of a MIDI file into a sheet. The note-ons of one track
+ * are mapped onto the notes of the bundled wav files by name, moving notes
+ * outside their range by octaves into it, and written as a text sheet next to
+ * the MIDI file. Plain sheets keep the highest note of each chord and are
+ * compiled right away, see CompiledSheet. Timed sheets keep every note of a
+ * chord along with its time and duration, and spread the notes over the lanes
+ * from low to high, see Timeline. They are parsed each time they are loaded,
+ * as timelines are not compiled.
+ *
+ * The file is streamed rather than read into a javax.sound.midi.Sequence, so
+ * no object is created per MIDI event: the tracks not selected are only
+ * scanned for tempo changes, and the notes of the selected track are
+ * collected into int arrays.
+ *
+ * Importing may run on any thread. Interrupting the thread cancels it.
+ */
+
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.zip.CRC32;
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.MidiFileFormat;
+import javax.sound.midi.MidiSystem;
+import javax.sound.midi.Sequence;
+import javax.sound.midi.ShortMessage;
+
+
+public class MidiImporter {
+    public static final String EXTENSION = ".mid.txt";
+
+    private static final int TRACK_CHUNK = 0x4d54726b;      // "MTrk"
+    private static final int META = 0xff;
+    private static final int META_TEMPO = 0x51;
+    private static final int DRUM_CHANNEL = 9;
+    private static final int DEFAULT_TEMPO = 500_000;       // us per quarter note
+    private static final int MIN_DURATION = 100;            // ms of a timed tile
+    private static final String[] KEY_NAMES = {
+        "c", "c#", "d", "d#", "e", "f", "f#", "g", "g#", "a", "a#", "b"
+    };
+
+    private final int[] KEY_NOTE;       // note of each MIDI key, 0 if none
+    private final int LOW_KEY;          // lowest MIDI key with a note
+    private final int HIGH_KEY;         // highest MIDI key with a note
+    private final int LANE_COUNT;       // lanes to spread timed notes over
+
+    /**
+     * Creates an importer for the given notes.
+     *
+     * @param soundNotes    file names of the wav files of the notes, such as
+     *                      "13_c7.wav", in the order of their indexes
+     * @param laneCount     number of lanes of timed sheets
+     * @throws IllegalArgumentException if a file name has no note name
+     */
+    public MidiImporter(String[] soundNotes, int laneCount) {
+        KEY_NOTE = new int[128];
+        LANE_COUNT = laneCount;
+
+        // file names are not in pitch order, so each one is mapped by name
+        int low = KEY_NOTE.length;
+        int high = -1;
+        for (int i = 0; i < soundNotes.length; i++) {
+            int key = keyOf(soundNotes[i]);
+
+            KEY_NOTE[key] = i + 1;
+            low = Math.min(low, key);
+            high = Math.max(high, key);
+        }
+
+        if (high - low < 11) {
+            throw new IllegalArgumentException("Notes do not cover an octave");
+        }
+        LOW_KEY = low;
+        HIGH_KEY = high;
+    }
+
+    /**
+     * Returns the MIDI key of a wav file of a note.
+     *
+     * @param soundNote file name such as "13_c7.wav", octave 4 being middle C
+     * @return          key from 0 to 127, middle C being 60
+     */
+    public static int keyOf(String soundNote) {
+        String name = soundNote.toLowerCase(Locale.ROOT);
+        int start = name.indexOf('_') + 1;
+        int end = name.lastIndexOf('.');
+
+        for (int i = KEY_NAMES.length - 1; i >= 0 && end > start; i--) {
+            if (name.startsWith(KEY_NAMES[i], start)) {
+                try {
+                    int octave = Integer.parseInt(name.substring(
+                            start + KEY_NAMES[i].length(), end));
+                    int key = (octave + 1) * 12 + i;
+
+                    if (key >= 0 && key < 128) {
+                        return key;
+                    }
+                } catch (NumberFormatException e) {
+                    break;
+                }
+            }
+        }
+
+        throw new IllegalArgumentException("No note name in " + soundNote);
+    }
+
+    /**
+     * Checks whether a file is named as a MIDI file.
+     *
+     * @param file  any file
+     * @return      true if it ends with .mid or .midi
+     */
+    public static boolean isMidi(File file) {
+        String name = file.getName().toLowerCase(Locale.ROOT);
+        return name.endsWith(".mid") || name.endsWith(".midi");
+    }
+
+    /**
+     * Returns the sheet file imported from a track of a MIDI file, named
+     * after it with EXTENSION so it never replaces a sheet written by hand.
+     * A track given by index is part of the name, such as "song.track2.mid.txt",
+     * so sheets of different tracks are kept apart.
+     *
+     * @param midiFile  MIDI file
+     * @param track     index of the track, or -1 for the first track with
+     *                  notes
+     * @return          file of its sheet
+     */
+    public static File sheetFileFor(File midiFile, int track) {
+        String name = midiFile.getName().replaceFirst("(?i)\\.midi?$", "");
+        if (track >= 0) {
+            name += ".track" + track;
+        }
+        return new File(midiFile.getParentFile(), name + EXTENSION);
+    }
+
+    /**
+     * Imports a track of a MIDI file, unless its sheet was written after the
+     * MIDI file was last changed.
+     *
+     * @param midiFile  MIDI file
+     * @param track     index of the track to import, or -1 for the first
+     *                  track with notes
+     * @param timed     true to write a timed sheet, false for a plain one
+     * @return          file of the sheet
+     * @throws IOException  if a file cannot be read or written, the file is
+     *                      not a MIDI file or the track has no notes
+     */
+    public File importFile(File midiFile, int track, boolean timed) throws IOException {
+        File sheetFile = sheetFileFor(midiFile, track);
+
+        if (sheetFile.isFile() && sheetFile.lastModified() >= midiFile.lastModified()
+                && timed == Timeline.isTimed(sheetFile)) {
+            return sheetFile;
+        }
+
+        MidiFileFormat format;
+        try {
+            format = MidiSystem.getMidiFileFormat(midiFile);
+        } catch (InvalidMidiDataException e) {
+            throw new IOException(midiFile.getName() + " is not a MIDI file", e);
+        }
+
+        Notes notes;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                Files.newInputStream(midiFile.toPath())))) {
+            notes = readNotes(in, track);
+        }
+
+        if (notes.count == 0) {
+            throw new IOException("No notes to import in " + midiFile.getName());
+        }
+
+        StringBuilder text = new StringBuilder(notes.count * 16);
+        int[] plain = null;
+        if (timed) {
+            writeTimed(text, notes, new TempoMap(notes, format), midiFile.getName());
+        }
+        else {
+            plain = writePlain(text, notes);
+        }
+
+        byte[] data = text.toString().getBytes(StandardCharsets.US_ASCII);
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, data.length);
+
+        checkCancelled();
+
+        // written beside and moved, so a cancelled import leaves no sheet
+        File tempFile = new File(sheetFile.getPath() + ".tmp");
+        Files.write(tempFile.toPath(), data);
+        Files.move(tempFile.toPath(), sheetFile.toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        if (plain != null) {
+            CompiledSheet.write(sheetFile, data.length, sheetFile.lastModified(),
+                    (int) crc.getValue(), new ArraySheet(plain));
+        }
+
+        return sheetFile;
+    }
+
+    /**
+     * Reads the notes of a track and the tempo changes of all tracks.
+     *
+     * @param in    MIDI file, from its start
+     * @param track index of the track, or -1 for the first track with notes
+     * @return      notes of the track in order of their start
+     * @throws IOException  if the file cannot be read or is truncated
+     */
+    private Notes readNotes(DataInputStream in, int track) throws IOException {
+        Notes notes = new Notes();
+        int trackIndex = 0;
+        boolean isFound = false;
+
+        while (true) {
+            // the file only ends cleanly between chunks
+            int first = in.read();
+            if (first == -1) {
+                break;
+            }
+
+            int chunkType;
+            long length;
+            try {
+                chunkType = first << 24 | in.readUnsignedByte() << 16
+                        | in.readUnsignedShort();
+                length = in.readInt() & 0xffffffffL;
+            } catch (EOFException e) {
+                throw new EOFException("MIDI chunk header is truncated");
+            }
+
+            // the header was read by MidiSystem, unknown chunks are ignored
+            if (chunkType != TRACK_CHUNK) {
+                skipFully(in, length);
+                continue;
+            }
+
+            checkCancelled();
+
+            boolean isSelected = !isFound && (track < 0 || track == trackIndex);
+            int start = notes.count;
+
+            readTrack(new DataInputStream(new BoundedInputStream(in, length)),
+                    notes, isSelected);
+
+            if (isSelected && (track >= 0 || notes.count > start)) {
+                isFound = true;
+            }
+            trackIndex++;
+        }
+
+        if (track >= trackIndex) {
+            throw new IOException("MIDI file has no track " + track);
+        }
+        return notes;
+    }
+
+    /**
+     * Reads the events of a track.
+     *
+     * @param in            events of the track, ending with the track
+     * @param notes         receives the tempo changes, and the notes if the
+     *                      track is selected
+     * @param isSelected    true to collect the notes of the track
+     * @throws IOException  if the track cannot be read or is truncated
+     */
+    private void readTrack(DataInputStream in, Notes notes, boolean isSelected)
+            throws IOException {
+        int[] open = new int[16 * 128];     // note playing on each channel key
+        Arrays.fill(open, -1);
+
+        long tick = 0;
+        int status = 0;
+
+        while (true) {
+            // the track only ends cleanly between events
+            int first = in.read();
+            if (first == -1) {
+                break;
+            }
+            tick += readVarInt(in, first);
+
+            int b = in.readUnsignedByte();
+            int data1;
+            if (b >= 0x80) {
+                status = b;
+                data1 = status < 0xf0 ? in.readUnsignedByte() : 0;
+            }
+            else if (status >= 0x80 && status < 0xf0) {     // running status
+                data1 = b;
+            }
+            else {
+                throw new IOException("MIDI event without a status");
+            }
+
+            if (status == META) {
+                int type = in.readUnsignedByte();
+                long length = readVarInt(in);
+
+                if (type == META_TEMPO && length == 3) {
+                    notes.addTempo(tick, in.readUnsignedByte() << 16
+                            | in.readUnsignedByte() << 8 | in.readUnsignedByte());
+                }
+                else {
+                    skipFully(in, length);
+                }
+                status = 0;
+                continue;
+            }
+            else if (status >= 0xf0) {      // system exclusive
+                skipFully(in, readVarInt(in));
+                status = 0;
+                continue;
+            }
+
+            int command = status & 0xf0;
+            int channel = status & 0x0f;
+            int data2 = command == ShortMessage.PROGRAM_CHANGE
+                    || command == ShortMessage.CHANNEL_PRESSURE ? 0 : in.readUnsignedByte();
+
+            if (!isSelected || channel == DRUM_CHANNEL) {
+                continue;
+            }
+
+            int key = channel * 128 + data1;
+            if (command == ShortMessage.NOTE_ON && data2 > 0) {
+                open[key] = notes.add(tick, fold(data1));
+            }
+            else if ((command == ShortMessage.NOTE_OFF || command == ShortMessage.NOTE_ON)
+                    && open[key] >= 0) {
+                notes.ends[open[key]] = tick;
+                open[key] = -1;
+            }
+        }
+    }
+
+    /**
+     * Moves a MIDI key by octaves into the range of the notes.
+     *
+     * @param key   MIDI key from 0 to 127
+     * @return      key with a note
+     */
+    private int fold(int key) {
+        while (key < LOW_KEY) {
+            key += 12;
+        }
+        while (key > HIGH_KEY) {
+            key -= 12;
+        }
+        return key;
+    }
+
+    /**
+     * Writes a plain sheet of the highest note of each chord.
+     *
+     * @param text  receives the sheet
+     * @param notes notes in order of their start
+     * @return      notes of the sheet
+     */
+    private int[] writePlain(StringBuilder text, Notes notes) {
+        int[] sheet = new int[notes.count];
+        int count = 0;
+
+        for (int i = 0; i < notes.count; ) {
+            int high = notes.keys[i];
+            int end = i + 1;
+            for (; end < notes.count && notes.starts[end] == notes.starts[i]; end++) {
+                high = Math.max(high, notes.keys[end]);
+            }
+
+            sheet[count++] = KEY_NOTE[high];
+            text.append(KEY_NOTE[high]).append(count % 16 == 0 ? '\n' : ' ');
+            i = end;
+        }
+        text.append('\n');
+
+        return Arrays.copyOf(sheet, count);
+    }
+
+    /**
+     * Writes a timed sheet with one event per chord. Each chord gets the lane
+     * of its lowest note, and lasts until its longest note ends or the next
+     * chord in its lane starts, whichever is first. Short notes last at least
+     * MIN_DURATION, so their tiles can be seen. A chord too close to the next
+     * one in its lane for that moves to the nearest lane with room, or is
+     * left out if no lane has room.
+     *
+     * @param text      receives the sheet
+     * @param notes     notes in order of their start
+     * @param tempo     times of the ticks of the notes
+     * @param source    name of the MIDI file, for the comment of the sheet
+     */
+    private void writeTimed(StringBuilder text, Notes notes, TempoMap tempo, String source) {
+        text.append("timed\n# imported from ").append(source).append('\n');
+        text.append("speed ").append(Timeline.DEFAULT_SPEED).append('\n');
+
+        long[] laneFree = new long[LANE_COUNT];     // start of the next chord
+        Arrays.fill(laneFree, Long.MAX_VALUE);
+
+        // chords are written backwards, so the next chord of a lane is known
+        int eventCount = 0;
+        String[] events = new String[notes.count];
+
+        for (int end = notes.count; end > 0; ) {
+            int first = end - 1;
+            while (first > 0 && notes.starts[first - 1] == notes.starts[end - 1]) {
+                first--;
+            }
+
+            int low = HIGH_KEY;
+            long last = notes.starts[first];
+            StringBuilder chord = new StringBuilder();
+            for (int i = first; i < end; i++) {
+                low = Math.min(low, notes.keys[i]);
+                last = Math.max(last, notes.ends[i]);
+
+                // keys folded onto the same note are played once
+                if (notes.indexOfKey(first, i, notes.keys[i]) < 0) {
+                    chord.append(chord.length() > 0 ? "+" : "").append(KEY_NOTE[notes.keys[i]]);
+                }
+            }
+
+            long time = tempo.millisAt(notes.starts[first]);
+            int lane = freeLane((low - LOW_KEY) * LANE_COUNT / (HIGH_KEY - LOW_KEY + 1),
+                    laneFree, time);
+
+            if (lane >= 0) {
+                long duration = Math.min(Math.max(tempo.millisAt(last) - time, MIN_DURATION),
+                        laneFree[lane] - time);
+
+                events[eventCount++] = time + " " + duration + " " + (lane + 1) + " " + chord;
+                laneFree[lane] = time;
+            }
+            end = first;
+        }
+
+        for (int i = eventCount - 1; i >= 0; i--) {
+            text.append(events[i]).append('\n');
+        }
+    }
+
+    /**
+     * Finds the lane nearest to a given one with room for a chord of at least
+     * MIN_DURATION.
+     *
+     * @param lane      lane of the lowest note of the chord
+     * @param laneFree  start of the next chord in each lane
+     * @param time      start of the chord in ms
+     * @return          lane with room, or -1 if none has
+     */
+    private int freeLane(int lane, long[] laneFree, long time) {
+        for (int distance = 0; distance < LANE_COUNT; distance++) {
+            if (lane - distance >= 0 && laneFree[lane - distance] - time >= MIN_DURATION) {
+                return lane - distance;
+            }
+            if (lane + distance < LANE_COUNT
+                    && laneFree[lane + distance] - time >= MIN_DURATION) {
+                return lane + distance;
+            }
+        }
+        return -1;
+    }
+
+    private static long readVarInt(DataInputStream in) throws IOException {
+        return readVarInt(in, in.readUnsignedByte());
+    }
+
+    private static long readVarInt(DataInputStream in, int first) throws IOException {
+        long value = 0;
+        int b = first;
+        for (int i = 0; i < 4; i++) {
+            if (i > 0) {
+                b = in.readUnsignedByte();
+            }
+            value = value << 7 | (b & 0x7f);
+            if (b < 0x80) {
+                return value;
+            }
+        }
+        throw new IOException("MIDI number longer than 4 bytes");
+    }
+
+    private static void skipFully(InputStream in, long length) throws IOException {
+        while (length > 0) {
+            long skipped = in.skip(length);
+            if (skipped <= 0) {
+                if (in.read() == -1) {
+                    throw new EOFException("MIDI chunk is truncated");
+                }
+                skipped = 1;
+            }
+            length -= skipped;
+        }
+    }
+
+    private static void checkCancelled() throws InterruptedIOException {
+        if (Thread.currentThread().isInterrupted()) {
+            throw new InterruptedIOException("MIDI import was cancelled");
+        }
+    }
+
+    /**
+     * Notes of the selected track, in parallel arrays in order of their
+     * start, and tempo changes of all tracks.
+     */
+    private static class Notes {
+        private long[] starts = new long[1024];     // tick of each note-on
+        private long[] ends = new long[1024];       // tick of each note-off
+        private int[] keys = new int[1024];         // folded MIDI key
+        private int count;
+
+        private long[] tempoTicks = new long[0];
+        private int[] tempos = new int[0];          // us per quarter note
+        private int tempoCount;
+
+        /**
+         * Adds a note, ending where it starts until its note-off is read.
+         *
+         * @return  index of the note
+         */
+        private int add(long tick, int key) {
+            if (count == starts.length) {
+                starts = Arrays.copyOf(starts, count * 2);
+                ends = Arrays.copyOf(ends, count * 2);
+                keys = Arrays.copyOf(keys, count * 2);
+            }
+
+            starts[count] = tick;
+            ends[count] = tick;
+            keys[count] = key;
+            return count++;
+        }
+
+        private void addTempo(long tick, int tempo) {
+            if (tempoCount == tempos.length) {
+                tempoTicks = Arrays.copyOf(tempoTicks, tempoCount * 2 + 4);
+                tempos = Arrays.copyOf(tempos, tempoCount * 2 + 4);
+            }
+
+            tempoTicks[tempoCount] = tick;
+            tempos[tempoCount] = tempo;
+            tempoCount++;
+        }
+
+        /**
+         * Finds a key among a range of notes.
+         *
+         * @return  index of the note, or -1 if none has the key
+         */
+        private int indexOfKey(int from, int to, int key) {
+            for (int i = from; i < to; i++) {
+                if (keys[i] == key) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+    }
+
+    /**
+     * Converts ticks into milliseconds, following the tempo changes of a MIDI
+     * file with a PPQ division, or the fixed frame rate of an SMPTE one.
+     */
+    private static class TempoMap {
+        private final long[] TICKS;         // tick of each tempo change
+        private final int[] TEMPOS;         // us per quarter note from it on
+        private final double[] MICROS;      // time of each tempo change in us
+        private final int RESOLUTION;       // ticks per quarter note or frame
+        private final float FRAME_RATE;     // frames per second, 0 for PPQ
+
+        private TempoMap(Notes notes, MidiFileFormat format) {
+            RESOLUTION = format.getResolution();
+            FRAME_RATE = format.getDivisionType() == Sequence.PPQ
+                    ? 0 : format.getDivisionType();
+
+            // tracks are read one after another, so changes are sorted here
+            int count = notes.tempoCount;
+            long[] keys = new long[count];
+            for (int i = 0; i < count; i++) {
+                keys[i] = notes.tempoTicks[i] << 20 | i;
+            }
+            Arrays.sort(keys);
+
+            TICKS = new long[count + 1];
+            TEMPOS = new int[count + 1];
+            MICROS = new double[count + 1];
+            TEMPOS[0] = DEFAULT_TEMPO;
+
+            for (int n = 0; n < count; n++) {
+                int i = (int) (keys[n] & 0xfffff);
+
+                TICKS[n + 1] = notes.tempoTicks[i];
+                TEMPOS[n + 1] = notes.tempos[i];
+                MICROS[n + 1] = MICROS[n]
+                        + (double) (TICKS[n + 1] - TICKS[n]) * TEMPOS[n] / RESOLUTION;
+            }
+        }
+
+        /**
+         * Returns the time of a tick from the start of the file.
+         *
+         * @param tick  tick of a note
+         * @return      time in milliseconds
+         */
+        private long millisAt(long tick) {
+            if (FRAME_RATE > 0) {
+                return Math.round(tick * 1000.0 / (FRAME_RATE * RESOLUTION));
+            }
+
+            int i = Arrays.binarySearch(TICKS, tick);
+            if (i < 0) {
+                i = -i - 2;
+            }
+            while (i + 1 < TICKS.length && TICKS[i + 1] == tick) {
+                i++;
+            }
+
+            return Math.round((MICROS[i] + (double) (tick - TICKS[i]) * TEMPOS[i] / RESOLUTION) / 1000);
+        }
+    }
+
+    /**
+     * Reads at most a given number of bytes of another stream, leaving it at
+     * the end of a chunk.
+     */
+    private static class BoundedInputStream extends InputStream {
+        private final InputStream IN;
+        private long remaining;
+
+        private BoundedInputStream(InputStream in, long length) {
+            IN = in;
+            remaining = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining == 0) {
+                return -1;
+            }
+
+            int b = IN.read();
+            if (b == -1) {
+                throw new EOFException("MIDI track is truncated");
+            }
+            remaining--;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            if (remaining == 0) {
+                return -1;
+            }
+
+            int read = IN.read(buffer, offset, (int) Math.min(length, remaining));
+            if (read == -1) {
+                throw new EOFException("MIDI track is truncated");
+            }
+            remaining -= read;
+            return read;
+        }
+
+        @Override
+        public long skip(long length) throws IOException {
+            long skipped = IN.skip(Math.min(length, remaining));
+            remaining -= skipped;
+            return skipped;
+        }
+    }
+}
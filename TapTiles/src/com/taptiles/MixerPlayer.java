@@ -0,0 +1,277 @@
+package com.taptiles;
+
+
+/**
+ * Plays notes through an AudioMixer on a SourceDataLine. A dedicated thread
+ * mixes one block at a time and writes it to the line, which blocks while the
+ * line buffer is full, so notes wait at most for the buffer to drain. Silence
+ * is written between notes to keep the line running.
+ *
+ * The buffer is taptiles.audio.bufferFrames frames, mixed in blocks of a
+ * quarter of it, and taptiles.audio.voices notes are played at once. The
+ * line runs at the rate of the bundled wav files if it supports it, else at
+ * 44.1 kHz, unless taptiles.audio.sampleRate is set, and the notes are
+ * decoded into a NoteBank in the format of the line, of at most
+ * taptiles.audio.bankBytes bytes. Notes may instead be pitched from a single
+ * recording, see openPitched, or synthesized, see openSynth, with nothing to
+ * load.
+ */
+
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.DataLine;
+import javax.sound.sampled.LineUnavailableException;
+import javax.sound.sampled.SourceDataLine;
+
+
+public class MixerPlayer implements NotePlayer, Runnable {
+    private static final int BUFFER_FRAMES = Integer.getInteger(
+            "taptiles.audio.bufferFrames", 512);
+    private static final int VOICE_COUNT = Integer.getInteger(
+            "taptiles.audio.voices", 16);
+    private static final int SAMPLE_RATE = Integer.getInteger(
+            "taptiles.audio.sampleRate", 0);
+    private static final long BANK_BYTES = Long.getLong(
+            "taptiles.audio.bankBytes", 32L * 1024 * 1024);
+    private static final int FALLBACK_RATE = 44100;
+    private static final int MIN_BLOCK_FRAMES = 32;
+
+    private final AudioMixer MIXER;
+    private final SourceDataLine LINE;
+    private final Thread THREAD;
+    private final int BLOCK_FRAMES;             // frames mixed at once
+
+    private volatile boolean isRunning;
+    private volatile long underrunCount;        // blocks written to an empty line
+
+    // samples of the voices, if any, set once the mixing thread runs
+    private volatile NoteBank bank;
+    private Wavetable wavetable;                // tone of the voices, if any
+
+    /**
+     * Opens the default audio line and starts mixing.
+     *
+     * @param voices        pool of voices to play the notes
+     * @param format        16-bit signed little-endian PCM format of the line
+     * @param bufferFrames  size of the line buffer in frames
+     * @throws LineUnavailableException if no line can be opened
+     */
+    public MixerPlayer(Voice[] voices, AudioFormat format, int bufferFrames)
+            throws LineUnavailableException {
+        BLOCK_FRAMES = Math.max(bufferFrames / 4, MIN_BLOCK_FRAMES);
+        MIXER = new AudioMixer(voices, format, BLOCK_FRAMES);
+
+        LINE = AudioSystem.getSourceDataLine(format);
+        LINE.open(format, Math.max(bufferFrames, BLOCK_FRAMES * 2) * format.getFrameSize());
+        LINE.start();
+
+        isRunning = true;
+        THREAD = new Thread(this, "audio-mixer");
+        THREAD.setDaemon(true);
+        THREAD.setPriority(Thread.MAX_PRIORITY);
+        THREAD.start();
+    }
+
+    /**
+     * Opens a player of the wav file of every note, with the voices and
+     * buffer set by the system properties. The notes are not loaded yet.
+     *
+     * @param noteUrls  wav file of each note, in the order of their indexes
+     * @return          running player
+     * @throws IOException  if the header of a file cannot be read
+     * @throws LineUnavailableException if no line can be opened
+     */
+    public static MixerPlayer open(URL[] noteUrls) throws IOException, LineUnavailableException {
+        AudioFormat format = chooseFormat();
+        NoteBank bank = NoteBank.open(noteUrls, format, BANK_BYTES);
+
+        Voice[] voices = new Voice[VOICE_COUNT];
+        for (int i = 0; i < voices.length; i++) {
+            voices[i] = new SampleVoice(bank);
+        }
+
+        MixerPlayer player = new MixerPlayer(voices, format, BUFFER_FRAMES);
+        player.bank = bank;
+        return player;
+    }
+
+    /**
+     * Opens a player of every note pitched from one recording, with the
+     * voices and buffer set by the system properties. The notes are not
+     * resampled yet, and are only resampled on the loader threads, see
+     * loadAll and preload.
+     *
+     * @param referenceUrl  wav file of the recording
+     * @param referenceKey  MIDI key of the recording
+     * @param noteKeys      MIDI key of each note, in the order of their indexes
+     * @return              running player
+     * @throws IOException  if the header of the file cannot be read
+     * @throws LineUnavailableException if no line can be opened
+     */
+    public static MixerPlayer openPitched(URL referenceUrl, int referenceKey, int[] noteKeys)
+            throws IOException, LineUnavailableException {
+        AudioFormat format = chooseFormat();
+        NoteBank bank = NoteBank.openPitched(referenceUrl, referenceKey, noteKeys,
+                format, BANK_BYTES);
+
+        Voice[] voices = new Voice[VOICE_COUNT];
+        for (int i = 0; i < voices.length; i++) {
+            voices[i] = new SampleVoice(bank);
+        }
+
+        MixerPlayer player = new MixerPlayer(voices, format, BUFFER_FRAMES);
+        player.bank = bank;
+        return player;
+    }
+
+    /**
+     * Opens a player synthesizing every note, with the voices and buffer set
+     * by the system properties.
+     *
+     * @param noteKeys  MIDI key of each note, in the order of their indexes
+     * @return          running player
+     * @throws LineUnavailableException if no line can be opened
+     * @throws IllegalArgumentException if a key is not on a piano
+     */
+    public static MixerPlayer openSynth(int[] noteKeys) throws LineUnavailableException {
+        Wavetable wavetable = new Wavetable(chooseFormat());
+
+        Voice[] voices = new Voice[VOICE_COUNT];
+        for (int i = 0; i < voices.length; i++) {
+            voices[i] = new SynthVoice(wavetable, noteKeys);
+        }
+
+        MixerPlayer player = new MixerPlayer(voices, wavetable.getFormat(), BUFFER_FRAMES);
+        player.wavetable = wavetable;
+        return player;
+    }
+
+    /**
+     * Picks the format of the line, trying stereo before mono at each rate.
+     *
+     * @return  16-bit signed little-endian PCM format supported by a line
+     * @throws LineUnavailableException if no line supports any of them
+     */
+    private static AudioFormat chooseFormat() throws LineUnavailableException {
+        float[] rates = SAMPLE_RATE > 0 ? new float[] { SAMPLE_RATE } : new float[] {
+            AudioMixer.DEFAULT_FORMAT.getSampleRate(), FALLBACK_RATE
+        };
+
+        for (float rate : rates) {
+            for (int channels = 2; channels >= 1; channels--) {
+                AudioFormat format = new AudioFormat(rate, 16, channels, true, false);
+
+                if (AudioSystem.isLineSupported(new DataLine.Info(SourceDataLine.class, format))) {
+                    return format;
+                }
+            }
+        }
+
+        throw new LineUnavailableException("No line plays 16-bit audio at "
+                + Arrays.toString(rates) + " Hz");
+    }
+
+    /**
+     * Mixes and writes blocks until closed.
+     */
+    @Override
+    public void run() {
+        byte[] block = new byte[BLOCK_FRAMES * MIXER.getFormat().getFrameSize()];
+
+        while (isRunning) {
+            NoteBank blockBank = bank;      // the same bank for the whole block
+
+            if (blockBank != null) {
+                blockBank.startBlock();
+            }
+            try {
+                MIXER.mix(block);
+            } finally {
+                if (blockBank != null) {
+                    blockBank.endBlock();
+                }
+            }
+
+            if (LINE.available() == LINE.getBufferSize()) {
+                underrunCount++;
+            }
+            LINE.write(block, 0, block.length);
+        }
+    }
+
+    @Override
+    public CompletableFuture<Void> loadAll() {
+        if (bank == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return bank.loadAll();
+    }
+
+    @Override
+    public CompletableFuture<Void> preload(BitSet notes) {
+        if (bank == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return bank.preload(notes);
+    }
+
+    /**
+     * Queues a note. A note the loaders have not reached yet, or that was
+     * evicted, is decoded or pitched in the background instead and not heard
+     * this time, so the UI thread never waits for a file or a resample.
+     *
+     * @param note  index of the note, from 1
+     */
+    @Override
+    public void play(int note) {
+        if (bank != null && !bank.request(note)) {
+            return;
+        }
+
+        MIXER.play(note);
+    }
+
+    @Override
+    public void close() {
+        isRunning = false;
+
+        try {
+            THREAD.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        LINE.stop();
+        LINE.close();
+    }
+
+    @Override
+    public String summary() {
+        AudioFormat format = MIXER.getFormat();
+        int bufferFrames = LINE.getBufferSize() / format.getFrameSize();
+
+        String text = String.format(Locale.ROOT,
+                "audio mixer %d Hz %d frames (%.1f ms) voices %d/%d stolen %d dropped %d underruns %d",
+                (int) format.getSampleRate(), bufferFrames,
+                bufferFrames * 1000.0 / format.getSampleRate(),
+                MIXER.getPlayingCount(), MIXER.getVoiceCount(),
+                MIXER.getStolenCount(), MIXER.getDroppedCount(), underrunCount);
+
+        if (bank != null) {
+            text += String.format(Locale.ROOT, " bank %d/%d KB notes %d/%d evicted %d",
+                    bank.getResidentBytes() / 1024, bank.getFootprint() / 1024,
+                    bank.getLoadedCount(), bank.getNoteCount(), bank.getEvictionCount());
+        }
+        if (wavetable != null) {
+            text += String.format(Locale.ROOT, " synth %d KB", wavetable.getFootprint() / 1024);
+        }
+        return text;
+    }
+}
@@ -0,0 +1,172 @@
+package com.taptiles;
+
+
+/**
+ * Draws the playfield with a Rectangle node per tile and labels for the key
+ * guides and score, styled by the scene's stylesheet.
+ */
+
+
+import java.util.ArrayList;
+import javafx.geometry.Pos;
+import javafx.scene.Node;
+import javafx.scene.control.Label;
+import javafx.scene.layout.HBox;
+import javafx.scene.layout.Pane;
+import javafx.scene.layout.StackPane;
+import javafx.scene.paint.Color;
+import javafx.scene.paint.Paint;
+import javafx.scene.shape.Rectangle;
+
+
+public class NodeRenderer implements TileRenderer {
+    private final int GUIDE_Y = 40;     // background for key guide height
+
+    private final GameEngine ENGINE;
+
+    private final int WIN_X;            // playfield width
+    private final int WIN_Y;            // playfield height
+    private final int TILE_X;           // tile width, also the key guide width
+    private final int TILE_Y;           // tile height
+
+    // arraylist to store rectangle objects for the tiles
+    // index i of TILE_RECT corresponds to tile index i of ENGINE
+    private final ArrayList<Rectangle> TILE_RECT;
+
+    private final ArrayList<Rectangle> KEYS_GUIDE;  // ui for set keys
+
+    private final Label SCORE_ACTIVE;
+
+    private final Pane VIEW;
+    private final Pane TILE_PANE;   // container for the tile rectangles
+
+    /**
+     * Creates the nodes for the playfield.
+     *
+     * @param engine    engine to draw
+     * @param keys      characters of the keys for each lane
+     * @param width     width of the playfield
+     * @param height    height of the playfield
+     */
+    public NodeRenderer(GameEngine engine, String keys, int width, int height) {
+        ENGINE = engine;
+        WIN_X = width;
+        WIN_Y = height;
+        TILE_X = width / engine.getLaneCount();
+        TILE_Y = engine.getTileHeight();
+
+        TILE_RECT = new ArrayList<>();
+        KEYS_GUIDE = new ArrayList<>();
+        SCORE_ACTIVE = new Label();
+
+        for (int i = 0; i < engine.getTileCount(); i++) {
+            createTileRect();
+        }
+        for (int i = 0; i < engine.getLaneCount(); i++) {
+            createGuideRect();
+        }
+
+        HBox pnScore = new HBox();  // container for score-related objects
+        pnScore.setAlignment(Pos.CENTER);
+        pnScore.setPrefWidth(WIN_X);
+        pnScore.setPrefHeight(100);
+        pnScore.getChildren().add(SCORE_ACTIVE);
+
+        HBox pnGuide = new HBox();  // container for key guide objects
+        pnGuide.setAlignment(Pos.BOTTOM_LEFT);
+        pnGuide.setPrefWidth(WIN_X);
+        pnGuide.setPrefHeight(WIN_Y);
+        for (int i = 0; i < engine.getLaneCount(); i++) {
+            pnGuide.getChildren().add(createGuideTile(keys.charAt(i), i));
+        }
+
+        TILE_PANE = new Pane();
+        TILE_PANE.getChildren().addAll(TILE_RECT);
+
+        VIEW = new Pane();
+        VIEW.getChildren().add(pnGuide);
+        VIEW.getChildren().add(TILE_PANE);
+        VIEW.getChildren().add(pnScore);
+    }
+
+    /**
+     * Returns HBox object with a rectangle background and key label.
+     *
+     * @param key       the character of a key to display
+     * @param rectIndex index of rectangle to set as as background for key label
+     * @return          hbox containing the rectangle and key label
+     */
+    private HBox createGuideTile(Character key, Integer rectIndex) {
+        Label lblKey = new Label(key.toString());
+
+        StackPane pnTileKey = new StackPane();
+        pnTileKey.setAlignment(Pos.BOTTOM_CENTER);
+        pnTileKey.getChildren().add(KEYS_GUIDE.get(rectIndex));
+        pnTileKey.getChildren().add(lblKey);
+
+        HBox pnTile = new HBox();
+        pnTile.setAlignment(Pos.CENTER);
+        pnTile.setPrefWidth(WIN_X);
+        pnTile.setPrefHeight(100);
+        pnTile.getChildren().add(pnTileKey);
+
+        return pnTile;
+    }
+
+    /**
+     * Adds a new rectangle representing a tile to an arraylist containing all
+     * the tiles. Defaults the y-position of the tile outside the visible area.
+     */
+    private void createTileRect() {
+        Rectangle rectTile = new Rectangle(0, -TILE_Y, TILE_X, TILE_Y);
+
+        TILE_RECT.add(rectTile);
+    }
+
+    /**
+     * Adds a new rectangle for the guide label to an arraylist containing all
+     * the background rectangles for the guide labels.
+     */
+    private void createGuideRect() {
+        Rectangle rectTile = new Rectangle(TILE_X, GUIDE_Y);
+        rectTile.setFill(Color.LIGHTGRAY);
+
+        KEYS_GUIDE.add(rectTile);
+    }
+
+    @Override
+    public Node getView() {
+        return VIEW;
+    }
+
+    /**
+     * Copies the tile positions from the engine to the rectangles.
+     *
+     * @param alpha fraction of a step elapsed since the last step
+     */
+    @Override
+    public void render(double alpha) {
+        // adds rectangles for tiles added since the engine's pool grew
+        while (TILE_RECT.size() < ENGINE.getTileCount()) {
+            createTileRect();
+            TILE_PANE.getChildren().add(TILE_RECT.get(TILE_RECT.size() - 1));
+        }
+
+        for (int i = 0; i < TILE_RECT.size(); i++) {
+            Rectangle rect = TILE_RECT.get(i);
+            rect.setX(ENGINE.getTileLane(i) * TILE_X);
+            rect.setY(ENGINE.getTileY(i, alpha));
+            rect.setHeight(ENGINE.getTileHeight(i));
+        }
+    }
+
+    @Override
+    public void setGuideFill(int lane, Paint fill) {
+        KEYS_GUIDE.get(lane).setFill(fill);
+    }
+
+    @Override
+    public void setScore(int score) {
+        SCORE_ACTIVE.setText(Integer.toString(score));
+    }
+}
@@ -0,0 +1,933 @@
+package com.taptiles;
+
+
+/**
+ * Decoded samples of the notes, held off the heap in a single direct buffer
+ * of a fixed budget. Notes are stored as interleaved 16-bit samples in the
+ * format of the audio line, found through tables of the offset and length of
+ * each note, so playing a note never converts or resamples anything.
+ *
+ * Wav files in another sample rate or channel count are converted while
+ * decoding, with linear interpolation between frames. Each note is given a
+ * range of the buffer sized from its wav header when decoded, and only one
+ * note at a time is held on the heap.
+ *
+ * Opening only reads the headers. The notes a sheet uses are then decoded in
+ * parallel on a pool of daemon threads, see preload, and a note played before
+ * its turn is queued to a background loader, see request. When the buffer is
+ * full, the least recently played notes outside the sheet are evicted, so a
+ * large set of notes costs no more memory than the budget. The notes of the
+ * sheet are only evicted once preload pins the notes of another sheet. Every
+ * load and eviction changes the stamp of the note, so a voice playing an
+ * evicted note stops at its next block, see getStamp. The samples of an
+ * evicted note are only reused once the block being mixed, which may still
+ * read them, has ended, see startBlock.
+ *
+ * A bank may instead be pitched from a single reference recording, see
+ * openPitched. The recording is decoded once, and each note is resampled
+ * from it with a windowed sinc by the loaders, when preloaded or requested,
+ * the bank then being a cache of the pitches bounded by its budget.
+ */
+
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.UnsupportedAudioFileException;
+
+
+public class NoteBank {
+    private static final int READ_SLACK = 64 * 1024;   // bytes, whole frames
+    private static final int LOADER_THREADS = Runtime.getRuntime().availableProcessors();
+    private static final int SINC_HALF_WIDTH = 8;       // zero crossings on each side
+    private static final int SINC_RESOLUTION = 256;     // points between zero crossings
+    private static final int SINC_PHASES = 1024;        // fractions of a frame resampled at
+    private static final float[] SINC = computeSinc();  // windowed sinc from 0 on
+
+    private final URL[] URLS;           // wav file of each note
+    private final double[] PITCHES;     // speed each file is played at, 1 if unchanged
+    private final boolean IS_PITCHED;   // all notes resampled from the same file
+    private final AudioFormat FORMAT;   // format of the samples
+    private final ShortBuffer SAMPLES;  // samples of the notes loaded, off the heap
+    private final int[] RESERVED;       // samples needed by each note, from its header
+    private final int[] OFFSETS;        // first sample of each note loaded
+    private final int[] LENGTHS;        // number of samples of each note loaded
+
+    // odd while a note is loaded, incremented by every load and eviction
+    private final AtomicIntegerArray STAMPS;
+    private final boolean[] IS_FAILED;  // guarded by the lock of each note
+    private final Object[] LOCKS;       // held while decoding each note
+    private final AtomicIntegerArray IS_REQUESTED;  // 1 while queued by request
+    private final ExecutorService REQUESTS;         // decodes requested notes
+
+    private final AtomicLongArray LAST_USED;    // clock when each note was last played
+    private final AtomicLong CLOCK;
+
+    // guarded by this
+    private final TreeMap<Integer, Integer> FREE;   // offset to length of free ranges
+    private BitSet pinned;              // notes of the sheet, never evicted
+    private long residentSamples;       // samples reserved by the notes loaded
+    private long evictionCount;
+
+    // incremented by the mixing thread as each block starts and ends, so odd
+    // while it may read samples
+    private volatile long blockCount;
+
+    private final Object REFERENCE_LOCK;    // held while decoding the reference
+    private volatile Recording reference;   // file of a pitched bank, once decoded
+
+    private NoteBank(URL[] urls, double[] pitches, boolean isPitched, AudioFormat format,
+            ShortBuffer samples, int[] reserved) {
+        URLS = urls;
+        PITCHES = pitches;
+        IS_PITCHED = isPitched;
+        FORMAT = format;
+        SAMPLES = samples;
+        RESERVED = reserved;
+        OFFSETS = new int[urls.length];
+        LENGTHS = new int[urls.length];
+
+        STAMPS = new AtomicIntegerArray(urls.length);
+        IS_FAILED = new boolean[urls.length];
+        LOCKS = new Object[urls.length];
+        for (int i = 0; i < LOCKS.length; i++) {
+            LOCKS[i] = new Object();
+        }
+        IS_REQUESTED = new AtomicIntegerArray(urls.length);
+        REQUESTS = Executors.newSingleThreadExecutor(task -> {
+            Thread thread = new Thread(task, "note-loader");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        LAST_USED = new AtomicLongArray(urls.length);
+        CLOCK = new AtomicLong();
+
+        FREE = new TreeMap<>();
+        FREE.put(0, samples.capacity());
+        pinned = new BitSet();
+
+        REFERENCE_LOCK = new Object();
+    }
+
+    /**
+     * Decodes wav files into a bank holding all of them, on the calling
+     * thread.
+     *
+     * @param noteUrls  wav file of each note, in the order of their indexes
+     * @param format    16-bit signed PCM format of the audio line, mono or
+     *                  stereo
+     * @return          bank of the notes, all loaded
+     * @throws IOException  if a file cannot be read or converted, or the
+     *                      notes do not fit in one buffer
+     */
+    public static NoteBank decode(URL[] noteUrls, AudioFormat format) throws IOException {
+        NoteBank bank = open(noteUrls, format, Long.MAX_VALUE);
+
+        for (int note = 1; note <= noteUrls.length; note++) {
+            bank.load(note);
+        }
+
+        return bank;
+    }
+
+    /**
+     * Creates a bank of wav files with no note loaded yet.
+     *
+     * @param noteUrls      wav file of each note, in the order of their indexes
+     * @param format        16-bit signed PCM format of the audio line, mono
+     *                      or stereo
+     * @param budgetBytes   most memory used by the samples, the buffer being
+     *                      smaller if all notes fit in less
+     * @return              empty bank of the notes
+     * @throws IOException  if a header cannot be read, or the notes do not
+     *                      fit in one buffer
+     */
+    public static NoteBank open(URL[] noteUrls, AudioFormat format, long budgetBytes)
+            throws IOException {
+        int channels = format.getChannels();
+        int[] reserved = new int[noteUrls.length];
+
+        // sizes every note from its header first, so the bank is allocated once
+        for (int i = 0; i < noteUrls.length; i++) {
+            AudioFileFormat fileFormat = readFileFormat(noteUrls[i]);
+            if (fileFormat.getFrameLength() == AudioSystem.NOT_SPECIFIED) {
+                throw new IOException("Unknown length of " + noteUrls[i]);
+            }
+
+            long frames = (long) Math.ceil((double) fileFormat.getFrameLength()
+                    * format.getSampleRate() / fileFormat.getFormat().getSampleRate());
+
+            if (frames * channels > Integer.MAX_VALUE / 2) {
+                throw new IOException(noteUrls[i] + " does not fit in a bank");
+            }
+            reserved[i] = (int) frames * channels;
+        }
+
+        double[] pitches = new double[noteUrls.length];
+        Arrays.fill(pitches, 1);
+
+        return newBank(noteUrls.clone(), pitches, false, format, reserved, budgetBytes);
+    }
+
+    /**
+     * Creates a bank of notes all pitched from one recording, with no note
+     * loaded yet. Notes are played faster or slower than the recording by
+     * their distance to it in semitones, so they are shorter or longer too.
+     *
+     * @param referenceUrl  wav file of the recording
+     * @param referenceKey  MIDI key of the recording
+     * @param noteKeys      MIDI key of each note, in the order of their indexes
+     * @param format        16-bit signed PCM format of the audio line, mono
+     *                      or stereo
+     * @param budgetBytes   most memory used by the samples of the notes, the
+     *                      buffer being smaller if all notes fit in less
+     * @return              empty bank of the notes
+     * @throws IOException  if the header cannot be read, or a note does not
+     *                      fit in one buffer
+     */
+    public static NoteBank openPitched(URL referenceUrl, int referenceKey, int[] noteKeys,
+            AudioFormat format, long budgetBytes) throws IOException {
+        AudioFileFormat fileFormat = readFileFormat(referenceUrl);
+        if (fileFormat.getFrameLength() == AudioSystem.NOT_SPECIFIED) {
+            throw new IOException("Unknown length of " + referenceUrl);
+        }
+
+        int channels = format.getChannels();
+        URL[] urls = new URL[noteKeys.length];
+        double[] pitches = new double[noteKeys.length];
+        int[] reserved = new int[noteKeys.length];
+
+        for (int i = 0; i < noteKeys.length; i++) {
+            urls[i] = referenceUrl;
+            pitches[i] = Math.pow(2, (noteKeys[i] - referenceKey) / 12.0);
+
+            long frames = (long) Math.ceil((double) fileFormat.getFrameLength()
+                    * format.getSampleRate() / fileFormat.getFormat().getSampleRate()
+                    / pitches[i]);
+
+            if (frames * channels > Integer.MAX_VALUE / 2) {
+                throw new IOException("Key " + noteKeys[i] + " does not fit in a bank");
+            }
+            reserved[i] = (int) frames * channels;
+        }
+
+        return newBank(urls, pitches, true, format, reserved, budgetBytes);
+    }
+
+    /**
+     * Allocates the buffer of a bank, as large as all notes or the budget,
+     * whichever is smaller.
+     */
+    private static NoteBank newBank(URL[] urls, double[] pitches, boolean isPitched,
+            AudioFormat format, int[] reserved, long budgetBytes) {
+        long total = 0;
+        for (int length : reserved) {
+            total += length;
+        }
+
+        long capacity = Math.min(total, Math.min(budgetBytes / 2, Integer.MAX_VALUE / 2));
+        ShortBuffer samples = ByteBuffer.allocateDirect((int) capacity * 2)
+                .order(ByteOrder.nativeOrder()).asShortBuffer();
+
+        return new NoteBank(urls, pitches, isPitched, format, samples, reserved);
+    }
+
+    /**
+     * Decodes a note, unless it is loaded or failed to load already, evicting
+     * the least recently played notes outside the sheet if the bank is full.
+     * The note is left unloaded if it only fits by evicting a note of the
+     * sheet. Waits for the note if another thread is decoding it. Marks the
+     * note as played.
+     *
+     * @param note  index of the note, from 1
+     * @throws IOException  if the file cannot be read or converted, or the
+     *                      note is larger than the bank, only thrown by the
+     *                      first attempt
+     */
+    public void load(int note) throws IOException {
+        if (isLoaded(note)) {
+            LAST_USED.set(note - 1, CLOCK.incrementAndGet());
+            return;
+        }
+
+        synchronized (LOCKS[note - 1]) {
+            if (isLoaded(note) || IS_FAILED[note - 1]) {
+                return;
+            }
+
+            if (RESERVED[note - 1] > SAMPLES.capacity()) {
+                IS_FAILED[note - 1] = true;
+                throw new IOException(URLS[note - 1] + " is larger than the bank of "
+                        + SAMPLES.capacity() * 2L / 1024 + " KB");
+            }
+
+            int offset = allocate(note);
+            if (offset < 0) {
+                return;     // no room outside the sheet
+            }
+
+            boolean isLoaded = false;
+            try {
+                LENGTHS[note - 1] = decodeNote(note, offset);
+                OFFSETS[note - 1] = offset;
+                isLoaded = true;
+            } finally {
+                if (isLoaded) {
+                    LAST_USED.set(note - 1, CLOCK.incrementAndGet());
+                    STAMPS.incrementAndGet(note - 1);   // publishes the samples
+                }
+                else {
+                    IS_FAILED[note - 1] = true;
+                    release(offset, RESERVED[note - 1]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Marks a note as played, and queues it to be decoded in the background
+     * if it is not loaded. Never blocks, so it may be called from the UI
+     * thread.
+     *
+     * @param note  index of the note, from 1
+     * @return      true if the note can be played now
+     */
+    public boolean request(int note) {
+        if (isLoaded(note)) {
+            LAST_USED.set(note - 1, CLOCK.incrementAndGet());
+            return true;
+        }
+
+        if (IS_REQUESTED.compareAndSet(note - 1, 0, 1)) {
+            REQUESTS.execute(() -> {
+                try {
+                    load(note);
+                } catch (IOException e) {
+                    System.out.println("ERROR: Failed to load note " + note + "!");
+                } finally {
+                    IS_REQUESTED.set(note - 1, 0);
+                }
+            });
+        }
+        return false;
+    }
+
+    /**
+     * Decodes the notes of a sheet not loaded yet in parallel, on daemon
+     * threads that end once every note is decoded. The notes are pinned,
+     * unpinning the notes of the previous sheet, so they are never evicted
+     * by other notes. Notes that only fit by evicting another note of the
+     * sheet are left unloaded.
+     *
+     * @param notes indexes of the notes, from 1
+     * @return      completes once the notes are loaded, or exceptionally
+     *              with an UncheckedIOException if any failed
+     */
+    public CompletableFuture<Void> preload(BitSet notes) {
+        BitSet loads = (BitSet) notes.clone();     // only the notes of the bank
+        loads.clear(0);
+        loads.clear(URLS.length + 1, Math.max(loads.length(), URLS.length + 1));
+        synchronized (this) {
+            pinned = loads;
+        }
+
+        return loadAll(loads);
+    }
+
+    /**
+     * Decodes every note not loaded yet in parallel, as far as they fit in
+     * the free room of the bank, so no note is evicted. Unpins the notes of
+     * the sheet, so notes played later may evict them.
+     *
+     * @return  completes once the notes are loaded, or exceptionally with
+     *          an UncheckedIOException if any failed
+     */
+    public CompletableFuture<Void> loadAll() {
+        BitSet loads = new BitSet();
+
+        synchronized (this) {
+            pinned = new BitSet();
+
+            long free = SAMPLES.capacity() - residentSamples;
+            for (int note = 1; note <= URLS.length; note++) {
+                if (!isLoaded(note) && RESERVED[note - 1] <= free) {
+                    loads.set(note);
+                    free -= RESERVED[note - 1];
+                }
+            }
+        }
+
+        return loadAll(loads);
+    }
+
+    /**
+     * Decodes notes in parallel on daemon threads that end once every note
+     * is decoded. The recording of a pitched bank is decoded first, so the
+     * threads resample from it rather than wait for it.
+     *
+     * @param loads indexes of the notes, from 1
+     * @return      completes once the notes are loaded, or exceptionally
+     *              with an UncheckedIOException if any failed
+     */
+    private CompletableFuture<Void> loadAll(BitSet loads) {
+        ExecutorService loaders = Executors.newFixedThreadPool(
+                Math.max(1, Math.min(LOADER_THREADS, loads.cardinality())), task -> {
+                    Thread thread = new Thread(task, "note-loader");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+
+        CompletableFuture<Void> ready = CompletableFuture.completedFuture(null);
+        if (IS_PITCHED && !loads.isEmpty()) {
+            ready = CompletableFuture.runAsync(() -> {
+                try {
+                    getReference();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }, loaders);
+        }
+
+        CompletableFuture<?>[] futures = new CompletableFuture<?>[loads.cardinality()];
+        int i = 0;
+        for (int note = loads.nextSetBit(1); note >= 0; note = loads.nextSetBit(note + 1)) {
+            int loaded = note;
+
+            futures[i++] = ready.thenRunAsync(() -> {
+                try {
+                    load(loaded);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }, loaders);
+        }
+
+        // the loads are only submitted once the recording is ready
+        CompletableFuture<Void> all = CompletableFuture.allOf(futures);
+        all.whenComplete((result, error) -> loaders.shutdown());
+        return all;
+    }
+
+    /**
+     * Finds a free range for a note, evicting notes outside the sheet until
+     * one is found.
+     *
+     * @param note  index of the note, from 1
+     * @return      first sample of the range, or -1 if there is no room
+     */
+    private synchronized int allocate(int note) {
+        int length = RESERVED[note - 1];
+
+        while (true) {
+            for (Map.Entry<Integer, Integer> range : FREE.entrySet()) {
+                int offset = range.getKey();
+                int free = range.getValue();
+
+                if (free >= length) {
+                    FREE.remove(offset);
+                    if (free > length) {
+                        FREE.put(offset + length, free - length);
+                    }
+
+                    residentSamples += length;
+                    return offset;
+                }
+            }
+
+            int victim = leastRecentlyUsed();
+            if (victim < 0) {
+                return -1;
+            }
+
+            STAMPS.incrementAndGet(victim - 1);     // stops voices playing it
+            awaitBlock();
+            release(OFFSETS[victim - 1], RESERVED[victim - 1]);
+            evictionCount++;
+        }
+    }
+
+    /**
+     * Returns the loaded note outside the sheet played the longest time ago.
+     *
+     * @return  index of the note, from 1, or -1 if none may be evicted
+     */
+    private int leastRecentlyUsed() {
+        int victim = -1;
+
+        for (int note = 1; note <= URLS.length; note++) {
+            if (isLoaded(note) && !pinned.get(note) && (victim < 0
+                    || LAST_USED.get(note - 1) < LAST_USED.get(victim - 1))) {
+                victim = note;
+            }
+        }
+
+        return victim;
+    }
+
+    /**
+     * Waits for the block being mixed, if any, to end, since it may have
+     * started a voice or checked its stamp before a note was evicted. Blocks
+     * started later see the new stamps, so the samples of the note can then
+     * be reused.
+     */
+    private void awaitBlock() {
+        long count = blockCount;
+        while ((count & 1) == 1 && blockCount == count) {
+            Thread.yield();
+        }
+    }
+
+    /**
+     * Marks the start of a block mixed from the bank. Must only be called
+     * from the mixing thread, followed by endBlock once the block is mixed.
+     */
+    public void startBlock() {
+        blockCount++;
+    }
+
+    /**
+     * Marks the end of a block mixed from the bank, see startBlock.
+     */
+    public void endBlock() {
+        blockCount++;
+    }
+
+    /**
+     * Frees a range of the buffer, merging it with the free ranges around it.
+     */
+    private synchronized void release(int offset, int length) {
+        residentSamples -= length;
+
+        Map.Entry<Integer, Integer> before = FREE.floorEntry(offset);
+        if (before != null && before.getKey() + before.getValue() == offset) {
+            FREE.remove(before.getKey());
+            offset = before.getKey();
+            length += before.getValue();
+        }
+
+        Integer after = FREE.remove(offset + length);
+        if (after != null) {
+            length += after;
+        }
+
+        FREE.put(offset, length);
+    }
+
+    /**
+     * Checks whether the samples of a note can be played. Never blocks, so
+     * it may be called from the mixing thread.
+     *
+     * @param note  index of the note, from 1
+     * @return      true if the note is decoded
+     */
+    public boolean isLoaded(int note) {
+        return (STAMPS.get(note - 1) & 1) == 1;
+    }
+
+    /**
+     * Returns the stamp of a note, which is odd while it is loaded and
+     * changes each time it is loaded or evicted. The offset and length of a
+     * note are valid as long as the stamp read before them is unchanged.
+     *
+     * @param note  index of the note, from 1
+     * @return      stamp of the note
+     */
+    public int getStamp(int note) {
+        return STAMPS.get(note - 1);
+    }
+
+    private static AudioFileFormat readFileFormat(URL url) throws IOException {
+        try {
+            return AudioSystem.getAudioFileFormat(url);
+        } catch (UnsupportedAudioFileException e) {
+            throw new IOException(url + " is not a supported audio file", e);
+        }
+    }
+
+    /**
+     * Decodes a note into its place in the bank, converting the sample rate
+     * and channels of its file and shifting its pitch.
+     *
+     * @param note      index of the note, from 1
+     * @param offset    first sample of the note in the bank
+     * @return          number of samples written, less than reserved if the
+     *                  file is shorter than its header tells
+     * @throws IOException  if the file cannot be read or converted
+     */
+    private int decodeNote(int note, int offset) throws IOException {
+        Recording recording = IS_PITCHED ? getReference() : readRecording(URLS[note - 1]);
+
+        if (PITCHES[note - 1] == 1) {
+            return resample(recording, SAMPLES, offset, RESERVED[note - 1], FORMAT);
+        }
+        return resampleSinc(recording, PITCHES[note - 1], SAMPLES, offset,
+                RESERVED[note - 1], FORMAT);
+    }
+
+    /**
+     * Returns the recording of a pitched bank, decoding it on first use.
+     *
+     * @return  samples of the recording
+     * @throws IOException  if the file cannot be read or converted
+     */
+    private Recording getReference() throws IOException {
+        synchronized (REFERENCE_LOCK) {
+            if (reference == null) {
+                reference = readRecording(URLS[0]).toChannels(FORMAT.getChannels());
+            }
+            return reference;
+        }
+    }
+
+    /**
+     * Decodes a wav file into 16-bit samples in its own rate and channels.
+     *
+     * @param url   wav file
+     * @return      samples of the file
+     * @throws IOException  if the file cannot be read or converted
+     */
+    private static Recording readRecording(URL url) throws IOException {
+        AudioInputStream in;
+        try {
+            in = AudioSystem.getAudioInputStream(url);
+        } catch (UnsupportedAudioFileException e) {
+            throw new IOException(url + " is not a supported audio file", e);
+        }
+
+        // 16-bit samples in the rate and channels of the file
+        AudioFormat source = in.getFormat();
+        AudioFormat pcm = new AudioFormat(source.getSampleRate(), 16,
+                source.getChannels(), true, false);
+
+        short[] samples;
+        try (InputStream pcmIn = source.matches(pcm) ? in : AudioSystem.getAudioInputStream(pcm, in)) {
+            samples = readSamples(pcmIn, in.getFrameLength() * source.getChannels());
+        } catch (IllegalArgumentException e) {
+            in.close();
+            throw new IOException("Cannot convert " + url + " to " + pcm, e);
+        }
+
+        return new Recording(samples, source.getChannels(), source.getSampleRate());
+    }
+
+    /**
+     * Reads all 16-bit little-endian samples of a stream.
+     *
+     * @param in        stream of samples
+     * @param expected  number of samples expected, or a negative number if
+     *                  unknown
+     * @return          samples read
+     * @throws IOException  if the stream cannot be read
+     */
+    private static short[] readSamples(InputStream in, long expected) throws IOException {
+        // room for the end of the stream to be seen without growing
+        byte[] data = new byte[(int) Math.max(expected * 2, 0) + READ_SLACK];
+        int length = 0;
+
+        while (true) {
+            if (length == data.length) {
+                data = Arrays.copyOf(data, data.length * 2);
+            }
+
+            int read = in.read(data, length, data.length - length);
+            if (read == -1) {
+                break;
+            }
+            length += read;
+        }
+
+        short[] samples = new short[length / 2];
+        ByteBuffer.wrap(data, 0, samples.length * 2).order(ByteOrder.LITTLE_ENDIAN)
+                .asShortBuffer().get(samples);
+        return samples;
+    }
+
+    /**
+     * Writes samples into the bank in its rate and channels, interpolating
+     * linearly between source frames. Stereo is mixed down to mono by
+     * averaging, and mono is copied to both channels of stereo.
+     *
+     * @return  number of samples written
+     */
+    private static int resample(Recording recording, ShortBuffer samples, int offset,
+            int length, AudioFormat format) {
+        short[] note = recording.SAMPLES;
+        int noteChannels = recording.CHANNELS;
+        float noteRate = recording.RATE;
+
+        int channels = format.getChannels();
+        int noteFrames = note.length / noteChannels;
+        int frames = Math.min(length / channels, (int) Math.ceil(
+                (double) noteFrames * format.getSampleRate() / noteRate));
+        double step = noteRate / format.getSampleRate();
+
+        if (noteChannels == channels && noteRate == format.getSampleRate()) {
+            ShortBuffer target = samples.duplicate();
+            target.position(offset);
+            target.put(note, 0, frames * channels);
+            return frames * channels;
+        }
+
+        for (int frame = 0; frame < frames; frame++) {
+            double position = frame * step;
+            int from = (int) position;
+            int to = Math.min(from + 1, noteFrames - 1);
+            double fraction = position - from;
+
+            for (int channel = 0; channel < channels; channel++) {
+                double first = channelSample(note, noteChannels, from, channel, channels);
+                double second = channelSample(note, noteChannels, to, channel, channels);
+
+                samples.put(offset + frame * channels + channel,
+                        (short) Math.round(first + (second - first) * fraction));
+            }
+        }
+
+        return frames * channels;
+    }
+
+    /**
+     * Writes samples into the bank played faster or slower by a pitch ratio,
+     * interpolating with a windowed sinc. When the pitch is raised, the sinc
+     * is widened to cut what would rise above half the rate of the bank, so
+     * the note does not alias. The sinc is computed once per note for
+     * SINC_PHASES positions between frames, the nearest one being used.
+     *
+     * @param recording samples in the channels of the bank
+     * @return          number of samples written
+     */
+    private static int resampleSinc(Recording recording, double pitch, ShortBuffer samples,
+            int offset, int length, AudioFormat format) {
+        short[] note = recording.SAMPLES;
+        int channels = format.getChannels();
+        int noteFrames = note.length / channels;
+        double step = pitch * recording.RATE / format.getSampleRate();
+        double cutoff = Math.min(1, 1 / step);          // of half the rate of the note
+        int reach = (int) Math.ceil(SINC_HALF_WIDTH / cutoff);     // note frames on each side
+        int frames = Math.min(length / channels, (int) Math.ceil(noteFrames / step));
+
+        // weight of each frame around the position, for each fraction of a frame
+        float[][] filters = new float[SINC_PHASES][2 * reach];
+        for (int phase = 0; phase < SINC_PHASES; phase++) {
+            for (int tap = 0; tap < 2 * reach; tap++) {
+                double distance = (double) phase / SINC_PHASES + reach - 1 - tap;
+                filters[phase][tap] = (float) (sinc(distance * cutoff) * cutoff);
+            }
+        }
+
+        for (int frame = 0; frame < frames; frame++) {
+            double position = frame * step;
+            int base = (int) position;
+            float[] filter = filters[(int) ((position - base) * SINC_PHASES)];
+
+            int first = base - reach + 1;
+            int fromTap = Math.max(0, -first);
+            int toTap = Math.min(2 * reach, noteFrames - first);
+
+            for (int channel = 0; channel < channels; channel++) {
+                float sum = 0;
+                int index = (first + fromTap) * channels + channel;
+
+                for (int tap = fromTap; tap < toTap; tap++) {
+                    sum += filter[tap] * note[index];
+                    index += channels;
+                }
+
+                samples.put(offset + frame * channels + channel, (short) Math.max(
+                        Short.MIN_VALUE, Math.min(Short.MAX_VALUE, Math.round(sum))));
+            }
+        }
+
+        return frames * channels;
+    }
+
+    /**
+     * Returns the windowed sinc at a distance, interpolated linearly between
+     * the points of the table.
+     *
+     * @param x distance in zero crossings
+     * @return  weight of a sample at that distance
+     */
+    private static double sinc(double x) {
+        double index = Math.abs(x) * SINC_RESOLUTION;
+        int from = (int) index;
+        if (from >= SINC.length - 1) {
+            return 0;
+        }
+        return SINC[from] + (SINC[from + 1] - SINC[from]) * (index - from);
+    }
+
+    /**
+     * Computes a sinc under a Blackman window, from 0 to its last zero
+     * crossing.
+     */
+    private static float[] computeSinc() {
+        float[] sinc = new float[SINC_HALF_WIDTH * SINC_RESOLUTION + 1];
+
+        for (int i = 0; i < sinc.length; i++) {
+            double x = (double) i / SINC_RESOLUTION;
+            double window = 0.42 + 0.5 * Math.cos(Math.PI * x / SINC_HALF_WIDTH)
+                    + 0.08 * Math.cos(2 * Math.PI * x / SINC_HALF_WIDTH);
+
+            sinc[i] = (float) (i == 0 ? 1 : window * Math.sin(Math.PI * x) / (Math.PI * x));
+        }
+
+        return sinc;
+    }
+
+    /**
+     * Returns the sample of a channel of the bank from a frame of a note.
+     */
+    private static double channelSample(short[] note, int noteChannels, int frame,
+            int channel, int channels) {
+        if (noteChannels == channels) {
+            return note[frame * noteChannels + channel];
+        }
+        else if (noteChannels == 1) {
+            return note[frame];
+        }
+
+        double sum = 0;     // mixes all channels of the note down
+        for (int i = 0; i < noteChannels; i++) {
+            sum += note[frame * noteChannels + i];
+        }
+        return sum / noteChannels;
+    }
+
+    public AudioFormat getFormat() {
+        return FORMAT;
+    }
+
+    public int getNoteCount() {
+        return OFFSETS.length;
+    }
+
+    /**
+     * Returns the first sample of a note, only valid while it is loaded.
+     *
+     * @param note  index of the note, from 1
+     * @return      index of the sample in the bank
+     */
+    public int getOffset(int note) {
+        return OFFSETS[note - 1];
+    }
+
+    /**
+     * Returns the number of samples of a note, all channels included, only
+     * valid while it is loaded.
+     *
+     * @param note  index of the note, from 1
+     * @return      number of samples
+     */
+    public int getLength(int note) {
+        return LENGTHS[note - 1];
+    }
+
+    /**
+     * Returns a sample of the bank.
+     *
+     * @param index index of the sample, see getOffset
+     * @return      16-bit sample
+     */
+    public short getSample(int index) {
+        return SAMPLES.get(index);
+    }
+
+    /**
+     * Returns the number of notes loaded.
+     *
+     * @return  number of notes
+     */
+    public int getLoadedCount() {
+        int count = 0;
+        for (int note = 1; note <= URLS.length; note++) {
+            if (isLoaded(note)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Returns the memory reserved by the notes loaded.
+     *
+     * @return  size in bytes
+     */
+    public synchronized long getResidentBytes() {
+        return residentSamples * 2;
+    }
+
+    public synchronized long getEvictionCount() {
+        return evictionCount;
+    }
+
+    /**
+     * Returns the memory used by the bank, the direct buffer, its tables
+     * and the recording of a pitched bank.
+     *
+     * @return  size in bytes
+     */
+    public long getFootprint() {
+        Recording recording = reference;
+
+        return SAMPLES.capacity() * 2L + URLS.length * (4L * 4 + 8 * 2)
+                + (recording != null ? recording.SAMPLES.length * 2L : 0);
+    }
+
+    /**
+     * Samples of a decoded file, in its own rate and channels.
+     */
+    private static class Recording {
+        private final short[] SAMPLES;      // interleaved 16-bit samples
+        private final int CHANNELS;
+        private final float RATE;           // frames per second
+
+        private Recording(short[] samples, int channels, float rate) {
+            SAMPLES = samples;
+            CHANNELS = channels;
+            RATE = rate;
+        }
+
+        /**
+         * Converts the recording to another channel count, see resample.
+         *
+         * @param channels  number of channels
+         * @return          this recording if it has that many channels already
+         */
+        private Recording toChannels(int channels) {
+            if (channels == CHANNELS) {
+                return this;
+            }
+
+            int frames = SAMPLES.length / CHANNELS;
+            short[] samples = new short[frames * channels];
+            for (int frame = 0; frame < frames; frame++) {
+                for (int channel = 0; channel < channels; channel++) {
+                    samples[frame * channels + channel] = (short) Math.round(
+                            channelSample(SAMPLES, CHANNELS, frame, channel, channels));
+                }
+            }
+
+            return new Recording(samples, channels, RATE);
+        }
+    }
+}
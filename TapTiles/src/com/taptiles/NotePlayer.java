@@ -0,0 +1,57 @@
+package com.taptiles;
+
+
+/**
+ * Audio backend playing the notes of sheets. Notes are indexes of the wav
+ * files in SOUND_NOTES, from 1. Notes are only played from the UI thread.
+ *
+ * Players are created before their notes are loaded, so the game can start
+ * while loadAll loads them in the background. Once a sheet is loaded, preload
+ * loads the notes it uses. A note played before it is loaded may be loaded
+ * in the background and silent that time, since play must not block.
+ */
+
+
+import java.util.BitSet;
+import java.util.concurrent.CompletableFuture;
+
+
+public interface NotePlayer {
+    /**
+     * Starts loading every note in the background.
+     *
+     * @return  completes once every note is loaded, or exceptionally if any
+     *          failed
+     */
+    CompletableFuture<Void> loadAll();
+
+    /**
+     * Starts loading the notes of a sheet in the background, which may evict
+     * notes outside the sheet to stay within the memory of the backend.
+     *
+     * @param notes indexes of the notes, from 1
+     * @return      completes once the notes are loaded, or exceptionally if
+     *              any failed
+     */
+    CompletableFuture<Void> preload(BitSet notes);
+
+    /**
+     * Starts playing a note, on top of the notes already playing. Returns as
+     * soon as the note is handed to the backend.
+     *
+     * @param note  index of the note, from 1
+     */
+    void play(int note);
+
+    /**
+     * Stops all notes and releases the audio device.
+     */
+    void close();
+
+    /**
+     * Returns a summary of the backend on one line, for the stats overlay.
+     *
+     * @return  text of the summary
+     */
+    String summary();
+}
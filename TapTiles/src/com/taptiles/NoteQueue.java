@@ -0,0 +1,71 @@
+package com.taptiles;
+
+
+/**
+ * Bounded queue of notes from one producer thread to one consumer thread,
+ * without locks. The producer only writes the tail and the consumer only
+ * writes the head, so neither ever waits for the other: offering to a full
+ * queue fails instead of blocking, and polling an empty one returns EMPTY.
+ */
+
+
+import java.util.concurrent.atomic.AtomicLong;
+
+
+public class NoteQueue {
+    public static final int EMPTY = -1;     // polled from an empty queue
+
+    private final int[] NOTES;
+    private final int MASK;                 // capacity - 1
+
+    private final AtomicLong HEAD;          // next note to poll
+    private final AtomicLong TAIL;          // next note to offer
+
+    /**
+     * Creates an empty queue.
+     *
+     * @param capacity  maximum number of notes waiting, rounded up to a
+     *                  power of two
+     */
+    public NoteQueue(int capacity) {
+        int size = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+
+        NOTES = new int[size];
+        MASK = size - 1;
+        HEAD = new AtomicLong();
+        TAIL = new AtomicLong();
+    }
+
+    /**
+     * Adds a note. Must only be called by the producer thread.
+     *
+     * @param note  non-negative note
+     * @return      false if the queue is full and the note was dropped
+     */
+    public boolean offer(int note) {
+        long tail = TAIL.get();
+        if (tail - HEAD.get() == NOTES.length) {
+            return false;
+        }
+
+        NOTES[(int) tail & MASK] = note;
+        TAIL.lazySet(tail + 1);     // publishes the note to the consumer
+        return true;
+    }
+
+    /**
+     * Removes the oldest note. Must only be called by the consumer thread.
+     *
+     * @return  the note, or EMPTY if there is none
+     */
+    public int poll() {
+        long head = HEAD.get();
+        if (head == TAIL.get()) {
+            return EMPTY;
+        }
+
+        int note = NOTES[(int) head & MASK];
+        HEAD.lazySet(head + 1);     // frees the slot for the producer
+        return note;
+    }
+}
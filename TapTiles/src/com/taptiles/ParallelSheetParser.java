@@ -0,0 +1,206 @@
+package com.taptiles;
+
+
+/**
+ * Parses a sheet held in memory on all cores. The sheet is split into chunks
+ * that end on whitespace, so no note spans two chunks, and the chunks are
+ * parsed on the common ForkJoinPool. Their notes are then copied into a
+ * single int array in order.
+ *
+ * As with SheetTokenizer, parsing does not stop at the first invalid token:
+ * all of them are collected and either reported together or skipped. Their
+ * lines and columns are worked out afterwards in a single pass up to the last
+ * of them, so sheets without errors never count lines.
+ */
+
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
+
+
+public class ParallelSheetParser {
+    private static final int CHUNK_SIZE = 256 * 1024;   // bytes per chunk
+
+    private ParallelSheetParser() {
+    }
+
+    /**
+     * Parses the contents of a sheet.
+     *
+     * @param data      raw contents of the sheet
+     * @param noteCount number of available notes, indexes must be from 1 to
+     *                  noteCount
+     * @return          parsed sheet
+     * @throws IOException  SheetFormatException listing every invalid token,
+     *                      or if there are no notes
+     */
+    public static Sheet parse(byte[] data, int noteCount) throws IOException {
+        return parse(data, noteCount, null);
+    }
+
+    /**
+     * Parses the contents of a sheet, leaving invalid tokens out.
+     *
+     * @param data      raw contents of the sheet
+     * @param noteCount number of available notes, indexes must be from 1 to
+     *                  noteCount
+     * @param skipped   receives the invalid tokens skipped, or null to fail
+     *                  on invalid tokens instead
+     * @return          parsed sheet
+     * @throws IOException  SheetFormatException listing every invalid token,
+     *                      if they are not skipped or there are no valid
+     *                      notes, or if there are no notes
+     */
+    public static Sheet parse(byte[] data, int noteCount, List<SheetError> skipped)
+            throws IOException {
+        int chunkCount = Math.max(1, data.length / CHUNK_SIZE);
+        int[] bounds = new int[chunkCount + 1];
+
+        // move each split forward to whitespace, so no token is cut in two
+        for (int i = 1; i < chunkCount; i++) {
+            int bound = Math.max(bounds[i - 1], (int) ((long) data.length * i / chunkCount));
+            while (bound < data.length && !isSpace(data[bound])) {
+                bound++;
+            }
+            bounds[i] = bound;
+        }
+        bounds[chunkCount] = data.length;
+
+        Chunk[] chunks = IntStream.range(0, chunkCount).parallel()
+                .mapToObj(i -> new Chunk(data, bounds[i], bounds[i + 1], noteCount))
+                .toArray(Chunk[]::new);
+
+        List<SheetError> errors = new ArrayList<>();
+        int[] starts = new int[chunkCount];
+        int count = 0;
+
+        for (int i = 0; i < chunkCount; i++) {
+            errors.addAll(chunks[i].errors);
+            starts[i] = count;
+            count += chunks[i].count;
+        }
+
+        if (!errors.isEmpty()) {
+            errors = locate(data, errors);
+
+            if (skipped == null || count == 0) {
+                throw new SheetFormatException(errors);
+            }
+            skipped.addAll(errors);
+        }
+
+        if (count == 0) {
+            throw new IOException("Sheet has no notes");
+        }
+
+        int[] notes = new int[count];
+        IntStream.range(0, chunkCount).parallel().forEach(i -> System.arraycopy(
+                chunks[i].notes, 0, notes, starts[i], chunks[i].count));
+
+        return new ArraySheet(notes);
+    }
+
+    /**
+     * Fills in the lines and columns of errors found by offset.
+     *
+     * @param data      raw contents of the sheet
+     * @param errors    errors in the order they appear
+     * @return          the errors with their lines and columns
+     */
+    private static List<SheetError> locate(byte[] data, List<SheetError> errors) {
+        List<SheetError> located = new ArrayList<>(errors.size());
+        int line = 1;
+        int lineStart = 0;
+        int i = 0;
+
+        for (SheetError error : errors) {
+            for (; i < error.getOffset(); i++) {
+                if (data[i] == '\n') {
+                    line++;
+                    lineStart = i + 1;
+                }
+            }
+
+            located.add(new SheetError(error.getOffset(), line,
+                    (int) error.getOffset() - lineStart + 1,
+                    error.getToken(), error.getReason()));
+        }
+
+        return located;
+    }
+
+    private static boolean isSpace(byte b) {
+        return b == ' ' || b == '\n' || b == '\r' || b == '\t';
+    }
+
+    /**
+     * Notes and invalid tokens of a part of a sheet.
+     */
+    private static class Chunk {
+        private int[] notes;
+        private int count;
+        private final List<SheetError> errors = new ArrayList<>(0);
+
+        /**
+         * Parses a part of a sheet which starts and ends between tokens.
+         *
+         * @param data      raw contents of the sheet
+         * @param start     offset of the first byte of the part
+         * @param end       offset after the last byte of the part
+         * @param noteCount number of available notes
+         */
+        private Chunk(byte[] data, int start, int end, int noteCount) {
+            notes = new int[16 + (end - start) / 3];
+
+            int i = start;
+            while (i < end) {
+                if (isSpace(data[i])) {
+                    i++;
+                    continue;
+                }
+
+                int tokenStart = i;
+                int value = 0;
+                String reason = null;
+
+                for (; i < end && !isSpace(data[i]); i++) {
+                    byte b = data[i];
+
+                    if (reason != null) {
+                        continue;
+                    }
+                    else if (b < '0' || b > '9') {
+                        reason = SheetError.NOT_A_NUMBER;
+                    }
+                    else {
+                        // checked per digit so that long tokens cannot overflow
+                        value = value * 10 + (b - '0');
+                        if (value > noteCount) {
+                            reason = SheetError.outOfRange(noteCount);
+                        }
+                    }
+                }
+
+                if (reason == null && value < 1) {
+                    reason = SheetError.outOfRange(noteCount);
+                }
+
+                // lines and columns are filled in by locate
+                if (reason != null) {
+                    errors.add(new SheetError(tokenStart, 0, 0,
+                            SheetError.tokenText(data, tokenStart, i - tokenStart),
+                            reason));
+                }
+                else {
+                    if (count == notes.length) {
+                        notes = Arrays.copyOf(notes, count * 2);
+                    }
+                    notes[count++] = value;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package com.taptiles;
+
+
+/**
+ * Voice playing the recorded wav file of each note from a NoteBank shared by
+ * all voices, so starting a note is only looking up where its samples are.
+ * A note not loaded yet is silent rather than waited for, and a note evicted
+ * from the bank while playing stops at the next block. The bank keeps the
+ * samples of an evicted note until the block reading them ends, as long as
+ * the mixing thread marks its blocks, see NoteBank.startBlock.
+ */
+
+
+public class SampleVoice extends Voice {
+    private final NoteBank BANK;
+    private final int CHANNELS;
+
+    private int note;                   // note playing
+    private int stamp;                  // stamp of the note when started
+    private int position;               // next sample to mix
+    private int end;                    // sample after the note playing
+
+    /**
+     * Creates a silent voice.
+     *
+     * @param bank  decoded samples of the notes, in the format of the mixer
+     */
+    public SampleVoice(NoteBank bank) {
+        BANK = bank;
+        CHANNELS = bank.getFormat().getChannels();
+    }
+
+    @Override
+    public void start(int note) {
+        this.note = note;
+        stamp = BANK.getStamp(note);
+
+        position = BANK.getOffset(note);
+        end = BANK.isLoaded(note) ? position + BANK.getLength(note) : position;
+
+        if (BANK.getStamp(note) != stamp) {
+            end = position;     // evicted while looking it up
+        }
+    }
+
+    @Override
+    public boolean mix(int[] mix, int frames) {
+        if (BANK.getStamp(note) != stamp) {
+            return false;
+        }
+
+        int count = Math.min(frames * CHANNELS, end - position);
+
+        for (int i = 0; i < count; i++) {
+            mix[i] += BANK.getSample(position + i);
+        }
+        position += count;
+
+        return position < end;
+    }
+}
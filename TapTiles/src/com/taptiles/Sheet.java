@@ -0,0 +1,51 @@
+package com.taptiles;
+
+
+/**
+ * Sheet of notes to play, the indexes of the wav files in SOUND_NOTES in
+ * order. Indexes start at 1. A sheet repeats from its first note once all of
+ * its notes have been played.
+ */
+
+
+import java.util.BitSet;
+
+
+public interface Sheet {
+    /**
+     * Returns the note to play at a position. Positions past the end of the
+     * sheet wrap around to its start.
+     *
+     * @param position  number of notes played before this one
+     * @return          index of the wav file of the note
+     */
+    int getNote(int position);
+
+    /**
+     * Returns the number of notes in the sheet, if known.
+     *
+     * @return  number of notes, or -1 while the end of the sheet has not been
+     *          read yet
+     */
+    int size();
+
+    /**
+     * Returns the distinct notes of the sheet, so only their samples need to
+     * be loaded. Reads the whole sheet once.
+     *
+     * @return  set of the indexes of the notes used, or null while the end
+     *          of the sheet has not been read yet
+     */
+    default BitSet getNoteSet() {
+        int size = size();
+        if (size < 0) {
+            return null;
+        }
+
+        BitSet notes = new BitSet();
+        for (int i = 0; i < size; i++) {
+            notes.set(getNote(i));
+        }
+        return notes;
+    }
+}
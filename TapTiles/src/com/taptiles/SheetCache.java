@@ -0,0 +1,182 @@
+package com.taptiles;
+
+
+/**
+ * Cache of parsed sheets, so that switching back to a recent sheet does not
+ * read its file again. Sheets are keyed by the canonical path, modification
+ * time and size of their file, so a changed file is never served from the
+ * cache. The least recently used sheets are evicted once the notes cached
+ * exceed a budget in bytes.
+ *
+ * Only sheets parsed up front are cached, plain sheets and timelines alike;
+ * mapped sheets are already cheap to open and keep their notes off the heap.
+ */
+
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+
+public class SheetCache {
+    private static final int ENTRY_BYTES = 64;     // rough overhead of an entry
+
+    private final long BUDGET;                      // bytes of sheets kept
+
+    // sheets in order of use, least recent first
+    private final LinkedHashMap<Key, Sheet> SHEETS;
+
+    private long bytes;             // estimated size of the cached sheets
+    private long hits;
+    private long misses;
+
+    /**
+     * Creates an empty cache.
+     *
+     * @param budget    maximum estimated size of the cached sheets in bytes
+     */
+    public SheetCache(long budget) {
+        BUDGET = budget;
+        SHEETS = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    /**
+     * Returns the sheet of a file from the cache, or loads and caches it.
+     *
+     * @param sheetFile file containing the sheet
+     * @param noteCount number of available notes, indexes must be from 1 to
+     *                  noteCount
+     * @param progress  receives the progress of loading, or null
+     * @return          parsed sheet
+     * @throws IOException  if the file cannot be read or has invalid notes
+     * @see SheetLoader#load(File, int, SheetLoader.Progress)
+     */
+    public Sheet load(File sheetFile, int noteCount, SheetLoader.Progress progress) throws IOException {
+        Key key = new Key(sheetFile.getCanonicalPath(), sheetFile.lastModified(),
+                sheetFile.length(), noteCount);
+
+        synchronized (this) {
+            Sheet sheet = SHEETS.get(key);
+            if (sheet != null) {
+                hits++;
+                return sheet;
+            }
+            misses++;
+        }
+
+        Sheet sheet = SheetLoader.load(sheetFile, noteCount, progress);
+        if (sheet instanceof ArraySheet || sheet instanceof Timeline) {
+            put(key, sheet);
+        }
+
+        return sheet;
+    }
+
+    /**
+     * Adds a sheet, evicting the least recently used sheets over the budget.
+     * Sheets larger than the budget are not added.
+     *
+     * @param key   key of the sheet
+     * @param sheet sheet to add
+     */
+    private synchronized void put(Key key, Sheet sheet) {
+        long size = sizeOf(sheet);
+        if (size > BUDGET) {
+            return;
+        }
+
+        Sheet old = SHEETS.put(key, sheet);
+        if (old != null) {
+            bytes -= sizeOf(old);
+        }
+        bytes += size;
+
+        Iterator<Map.Entry<Key, Sheet>> eldest = SHEETS.entrySet().iterator();
+        while (bytes > BUDGET) {
+            bytes -= sizeOf(eldest.next().getValue());
+            eldest.remove();
+        }
+    }
+
+    /**
+     * Estimates the heap used by a cached sheet.
+     *
+     * @param sheet sheet parsed up front
+     * @return      size in bytes
+     */
+    private static long sizeOf(Sheet sheet) {
+        if (sheet instanceof Timeline) {
+            return ENTRY_BYTES + ((Timeline) sheet).getFootprint();
+        }
+        return ENTRY_BYTES + 4L * sheet.size();
+    }
+
+    /**
+     * Removes all sheets. The counters are kept.
+     */
+    public synchronized void clear() {
+        SHEETS.clear();
+        bytes = 0;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * Returns a summary of the cache on one line.
+     *
+     * @return  text of the summary
+     */
+    public synchronized String summary() {
+        return String.format(Locale.ROOT, "sheets %d cached %d KB hit %d miss %d",
+                SHEETS.size(), bytes / 1024, hits, misses);
+    }
+
+    /**
+     * Identity of a sheet file at a point in time.
+     */
+    private static final class Key {
+        private final String PATH;
+        private final long MODIFIED;
+        private final long SIZE;
+        private final int NOTE_COUNT;   // notes the sheet was validated for
+
+        private Key(String path, long modified, long size, int noteCount) {
+            PATH = path;
+            MODIFIED = modified;
+            SIZE = size;
+            NOTE_COUNT = noteCount;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Key)) {
+                return false;
+            }
+
+            Key key = (Key) other;
+            return PATH.equals(key.PATH) && MODIFIED == key.MODIFIED
+                    && SIZE == key.SIZE && NOTE_COUNT == key.NOTE_COUNT;
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = PATH.hashCode();
+            hash = 31 * hash + Long.hashCode(MODIFIED);
+            hash = 31 * hash + Long.hashCode(SIZE);
+            return 31 * hash + NOTE_COUNT;
+        }
+    }
+}
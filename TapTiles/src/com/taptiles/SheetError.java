@@ -0,0 +1,106 @@
+package com.taptiles;
+
+
+/**
+ * Invalid token found while parsing a sheet, with its position both as a
+ * byte offset and as a line and column for people fixing the sheet.
+ */
+
+
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
+
+public class SheetError {
+    public static final String NOT_A_NUMBER = "is not a number";
+
+    public static final int TOKEN_LIMIT = 32;   // bytes of a token kept
+
+    private final long OFFSET;      // offset of the token in bytes
+    private final int LINE;         // line of the token, from 1
+    private final int COLUMN;       // column of the token in bytes, from 1
+    private final String TOKEN;
+    private final String REASON;
+
+    /**
+     * Creates an error.
+     *
+     * @param offset    offset of the invalid token in bytes
+     * @param line      line of the token, from 1
+     * @param column    column of the token in bytes, from 1
+     * @param token     text of the token
+     * @param reason    why the token is invalid, following the token in a
+     *                  sentence
+     */
+    public SheetError(long offset, int line, int column, String token, String reason) {
+        OFFSET = offset;
+        LINE = line;
+        COLUMN = column;
+        TOKEN = token;
+        REASON = reason;
+    }
+
+    /**
+     * Returns the text of a token, shortened if it is very long. Only the
+     * first TOKEN_LIMIT bytes of the token are read, and a UTF-8 character
+     * cut by the limit is left out rather than decoded in part.
+     *
+     * @param data      bytes containing the token
+     * @param start     offset of the token in data
+     * @param length    length of the whole token in bytes
+     * @return          text of the token
+     */
+    public static String tokenText(byte[] data, int start, int length) {
+        if (length <= TOKEN_LIMIT) {
+            return new String(data, start, length, StandardCharsets.UTF_8);
+        }
+
+        // backs off to the lead byte of the last character, if it is cut
+        int lead = start + TOKEN_LIMIT - 1;
+        while (lead > start && (data[lead] & 0xc0) == 0x80) {
+            lead--;
+        }
+        int charLength = (data[lead] & 0xe0) == 0xc0 ? 2
+                : (data[lead] & 0xf0) == 0xe0 ? 3
+                : (data[lead] & 0xf8) == 0xf0 ? 4 : 1;
+        int end = lead + charLength <= start + TOKEN_LIMIT ? start + TOKEN_LIMIT : lead;
+
+        return new String(data, start, end - start, StandardCharsets.UTF_8) + "...";
+    }
+
+    /**
+     * Returns the reason for a token which is a number but not a note.
+     *
+     * @param noteCount number of available notes
+     * @return          the reason
+     */
+    public static String outOfRange(int noteCount) {
+        return "is not a note from 1 to " + noteCount;
+    }
+
+    public long getOffset() {
+        return OFFSET;
+    }
+
+    public int getLine() {
+        return LINE;
+    }
+
+    public int getColumn() {
+        return COLUMN;
+    }
+
+    public String getToken() {
+        return TOKEN;
+    }
+
+    public String getReason() {
+        return REASON;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ROOT, "line %d, column %d (byte %d): \"%s\" %s",
+                LINE, COLUMN, OFFSET, TOKEN, REASON);
+    }
+}
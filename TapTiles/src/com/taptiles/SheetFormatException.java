@@ -0,0 +1,33 @@
+package com.taptiles;
+
+
+/**
+ * Thrown when a sheet has invalid tokens, listing all of them.
+ */
+
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+
+
+public class SheetFormatException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    private final List<SheetError> ERRORS;
+
+    /**
+     * Creates an exception for the invalid tokens of a sheet.
+     *
+     * @param errors    invalid tokens in the order they appear, at least one
+     */
+    public SheetFormatException(List<SheetError> errors) {
+        super(errors.get(0) + (errors.size() > 1 
+                ? " (and " + (errors.size() - 1) + " more)" : ""));
+        ERRORS = Collections.unmodifiableList(errors);
+    }
+
+    public List<SheetError> getErrors() {
+        return ERRORS;
+    }
+}
@@ -0,0 +1,350 @@
+package com.taptiles;
+
+
+/**
+ * Library of the sheets in a set of directories, kept in an index file so
+ * that the song list opens without reading any sheet. Each entry holds the
+ * path, size, modification time and CRC32 of a sheet, along with its note
+ * count and lowest and highest note. A rescan walks the directories, skipping
+ * those that cannot be read, and only reads sheets whose size or modification
+ * time changed, in parallel. Each is hashed and parsed in one read and not
+ * compiled, see SheetLoader, so scanning writes nothing beside the sheets. A
+ * sheet whose hash did not change keeps its note stats.
+ *
+ * Sheets that fail to parse are kept with a note count of 0, so that they are
+ * not parsed again until they change.
+ */
+
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.zip.CRC32;
+
+
+public class SheetLibrary {
+    private static final int MAGIC = 0x5454534C;    // "TTSL"
+    private static final int VERSION = 1;
+
+    private final File INDEX_FILE;
+    private final int NOTE_COUNT;                   // number of available notes
+
+    private final Set<File> DIRECTORIES;            // directories scanned
+    private List<Entry> entries;                    // sorted by name
+
+    /**
+     * Creates an empty library.
+     *
+     * @param indexFile file the index is read from and saved to
+     * @param noteCount number of available notes, indexes must be from 1 to
+     *                  noteCount
+     */
+    public SheetLibrary(File indexFile, int noteCount) {
+        INDEX_FILE = indexFile;
+        NOTE_COUNT = noteCount;
+
+        DIRECTORIES = new LinkedHashSet<>();
+        entries = Collections.emptyList();
+    }
+
+    /**
+     * Reads the index file, if there is one. An unreadable or outdated index
+     * leaves the library empty, to be filled by the next scan.
+     */
+    public synchronized void open() {
+        if (!INDEX_FILE.isFile()) {
+            return;
+        }
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(INDEX_FILE)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return;
+            }
+
+            int directoryCount = in.readInt();
+            for (int i = 0; i < directoryCount; i++) {
+                DIRECTORIES.add(new File(in.readUTF()));
+            }
+
+            int entryCount = in.readInt();
+            List<Entry> read = new ArrayList<>(entryCount);
+            for (int i = 0; i < entryCount; i++) {
+                read.add(new Entry(new File(in.readUTF()), in.readLong(), in.readLong(),
+                        in.readInt(), in.readInt(), in.readInt(), in.readInt()));
+            }
+
+            entries = Collections.unmodifiableList(read);
+        } catch (IOException e) {
+            System.out.println("ERROR: Failed to read sheet library!");
+        }
+    }
+
+    /**
+     * Adds a directory to scan. Takes effect on the next scan.
+     *
+     * @param directory directory containing sheets
+     */
+    public synchronized void addDirectory(File directory) {
+        DIRECTORIES.add(directory.getAbsoluteFile());
+    }
+
+    /**
+     * Rescans all directories for .txt sheets and saves the index. Sheets
+     * are read in parallel, and only if they are new or have changed since
+     * the last scan.
+     *
+     * @return  the updated entries, sorted by name
+     * @throws IOException  if the index cannot be saved
+     */
+    public List<Entry> scan() throws IOException {
+        List<File> directories;
+        Map<File, Entry> known = new HashMap<>();
+
+        synchronized (this) {
+            directories = new ArrayList<>(DIRECTORIES);
+            for (Entry entry : entries) {
+                known.put(entry.getFile(), entry);
+            }
+        }
+
+        List<File> files = new ArrayList<>();
+        for (File directory : directories) {
+            if (directory.isDirectory()) {
+                Files.walkFileTree(directory.toPath(), new SimpleFileVisitor<Path>() {
+                    @Override
+                    public FileVisitResult visitFile(Path path, BasicFileAttributes attributes) {
+                        if (attributes.isRegularFile()
+                                && path.toString().toLowerCase(Locale.ROOT).endsWith(".txt")) {
+                            files.add(path.toFile());
+                        }
+                        return FileVisitResult.CONTINUE;
+                    }
+
+                    @Override
+                    public FileVisitResult visitFileFailed(Path path, IOException e) {
+                        System.out.println("ERROR: Failed to scan " + path + "!");
+                        return FileVisitResult.CONTINUE;
+                    }
+
+                    @Override
+                    public FileVisitResult postVisitDirectory(Path path, IOException e) {
+                        if (e != null) {
+                            System.out.println("ERROR: Failed to scan " + path + "!");
+                        }
+                        return FileVisitResult.CONTINUE;
+                    }
+                });
+            }
+        }
+
+        List<Entry> scanned = files.parallelStream()
+                .distinct()
+                .map(file -> {
+                    Entry entry = known.get(file);
+                    if (entry != null && entry.getSize() == file.length()
+                            && entry.getModified() == file.lastModified()) {
+                        return entry;
+                    }
+                    return index(file, entry);
+                })
+                .sorted(Comparator.comparing(Entry::getName, String.CASE_INSENSITIVE_ORDER))
+                .collect(Collectors.toList());
+
+        synchronized (this) {
+            entries = Collections.unmodifiableList(scanned);
+            save();
+            return entries;
+        }
+    }
+
+    /**
+     * Reads a sheet and collects its entry. The sheet is hashed and parsed in
+     * one pass, and neither compiled nor read from its compiled sheet.
+     *
+     * @param file  sheet to read
+     * @param known entry of the sheet from the last scan, or null
+     * @return      entry of the sheet, with a note count of 0 if the sheet
+     *              cannot be read
+     */
+    private Entry index(File file, Entry known) {
+        long size = file.length();
+        long modified = file.lastModified();
+
+        try {
+            CRC32 crc = new CRC32();
+            Sheet sheet = Timeline.isTimed(file) ? Timeline.read(file, NOTE_COUNT, crc)
+                    : SheetLoader.read(file, NOTE_COUNT, crc);
+            int hash = (int) crc.getValue();
+
+            // touched but not changed, such as copied or restored
+            if (known != null && known.isValid() && known.getHash() == hash) {
+                return new Entry(file, size, modified, hash, known.getNoteCount(),
+                        known.getMinNote(), known.getMaxNote());
+            }
+
+            int count = sheet.size();
+            int min = Integer.MAX_VALUE;
+            int max = 0;
+            for (int i = 0; i < count; i++) {
+                int note = sheet.getNote(i);
+
+                min = Math.min(min, note);
+                max = Math.max(max, note);
+            }
+
+            return new Entry(file, size, modified, hash, count, min, max);
+        } catch (IOException e) {
+            System.out.println("ERROR: Failed to index sheet " + file.getName() + "!");
+            return new Entry(file, size, modified, 0, 0, 0, 0);
+        }
+    }
+
+    /**
+     * Writes the index file. The file is written beside and then moved over
+     * the old one.
+     *
+     * @throws IOException  if the file cannot be written
+     */
+    private void save() throws IOException {
+        File parent = INDEX_FILE.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("Cannot create " + parent);
+        }
+
+        File tempFile = new File(INDEX_FILE.getPath() + ".tmp");
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(tempFile)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+
+            out.writeInt(DIRECTORIES.size());
+            for (File directory : DIRECTORIES) {
+                out.writeUTF(directory.getPath());
+            }
+
+            out.writeInt(entries.size());
+            for (Entry entry : entries) {
+                out.writeUTF(entry.getFile().getPath());
+                out.writeLong(entry.getSize());
+                out.writeLong(entry.getModified());
+                out.writeInt(entry.getHash());
+                out.writeInt(entry.getNoteCount());
+                out.writeInt(entry.getMinNote());
+                out.writeInt(entry.getMaxNote());
+            }
+        }
+
+        Files.move(tempFile.toPath(), INDEX_FILE.toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Returns the entries of the last scan, or of the index file if there was
+     * no scan yet.
+     *
+     * @return  unmodifiable list of entries, sorted by name
+     */
+    public synchronized List<Entry> getEntries() {
+        return entries;
+    }
+
+    /**
+     * Indexed sheet. Immutable, so entries can be shared between scans.
+     */
+    public static class Entry {
+        private final File FILE;
+        private final long SIZE;
+        private final long MODIFIED;
+        private final int HASH;
+        private final int NOTE_COUNT;
+        private final int MIN_NOTE;
+        private final int MAX_NOTE;
+
+        /**
+         * Creates an entry.
+         *
+         * @param file      the sheet file
+         * @param size      size of the file in bytes
+         * @param modified  modification time of the file
+         * @param hash      CRC32 of the file
+         * @param noteCount number of notes, 0 if the sheet is invalid
+         * @param minNote   lowest note of the sheet
+         * @param maxNote   highest note of the sheet
+         */
+        public Entry(File file, long size, long modified, int hash,
+                int noteCount, int minNote, int maxNote) {
+            FILE = file;
+            SIZE = size;
+            MODIFIED = modified;
+            HASH = hash;
+            NOTE_COUNT = noteCount;
+            MIN_NOTE = minNote;
+            MAX_NOTE = maxNote;
+        }
+
+        public File getFile() {
+            return FILE;
+        }
+
+        /**
+         * Returns the name of the sheet, its file name without .txt.
+         *
+         * @return  name of the sheet
+         */
+        public String getName() {
+            String name = FILE.getName();
+            return name.substring(0, name.length() - 4);
+        }
+
+        public long getSize() {
+            return SIZE;
+        }
+
+        public long getModified() {
+            return MODIFIED;
+        }
+
+        public int getHash() {
+            return HASH;
+        }
+
+        public int getNoteCount() {
+            return NOTE_COUNT;
+        }
+
+        public int getMinNote() {
+            return MIN_NOTE;
+        }
+
+        public int getMaxNote() {
+            return MAX_NOTE;
+        }
+
+        public boolean isValid() {
+            return NOTE_COUNT > 0;
+        }
+    }
+}
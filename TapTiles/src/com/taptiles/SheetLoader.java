@@ -0,0 +1,317 @@
+package com.taptiles;
+
+
+/**
+ * Reads sheets, which are text files of whitespace-separated indexes of the
+ * wav files in SOUND_NOTES. Kept apart from the UI so that parsing can be
+ * timed and reused without a Stage.
+ *
+ * Files of at least taptiles.sheet.mapThreshold bytes are memory-mapped and
+ * read while playing instead of being parsed up front. Files of at least
+ * taptiles.sheet.parallelThreshold bytes are read whole and parsed on all
+ * cores, see ParallelSheetParser. Files parsed up front are compiled the
+ * first time they are parsed, see CompiledSheet.
+ *
+ * Invalid notes fail the load with a SheetFormatException listing all of
+ * them, unless taptiles.sheet.skipInvalid is set, in which case they are
+ * reported and left out of the sheet.
+ *
+ * Loading may run on any thread. Interrupting the thread cancels the load.
+ */
+
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+
+
+public class SheetLoader {
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final long MAP_THRESHOLD = Long.getLong(
+            "taptiles.sheet.mapThreshold", 32L * 1024 * 1024);
+    private static final long PARALLEL_THRESHOLD = Long.getLong(
+            "taptiles.sheet.parallelThreshold", 1024L * 1024);
+    private static final boolean SKIP_INVALID = Boolean.getBoolean(
+            "taptiles.sheet.skipInvalid");
+    private static final int ERRORS_PRINTED = 100;  // errors printed per sheet
+
+    /**
+     * Receives the progress of reading a sheet file, on the loading thread.
+     */
+    public interface Progress {
+        /**
+         * Called after each buffer of the file is read.
+         *
+         * @param bytesRead     number of bytes read so far
+         * @param totalBytes    size of the file
+         */
+        void update(long bytesRead, long totalBytes);
+    }
+
+    private SheetLoader() {
+    }
+
+    /**
+     * Reads and parses a sheet file. The file is streamed through a fixed
+     * buffer, so only the parsed notes are kept in memory. Large files are
+     * mapped instead, see MappedSheet, and files compiled by an earlier load
+     * are read from their compiled sheet. Timed sheets are compiled into a
+     * Timeline, see Timeline.
+     *
+     * @param sheetFile file containing the sheet
+     * @param noteCount number of available notes, indexes must be from 1 to
+     *                  noteCount
+     * @return          parsed sheet
+     * @throws IOException  if the file cannot be read or has invalid notes
+     */
+    public static Sheet load(File sheetFile, int noteCount) throws IOException {
+        return load(sheetFile, noteCount, null);
+    }
+
+    /**
+     * Reads and parses a sheet file, reporting the progress of reading it.
+     *
+     * @param sheetFile file containing the sheet
+     * @param noteCount number of available notes, indexes must be from 1 to
+     *                  noteCount
+     * @param progress  receives the progress, or null
+     * @return          parsed sheet
+     * @throws IOException  if the file cannot be read or has invalid notes,
+     *                      or InterruptedIOException if the load was
+     *                      cancelled
+     */
+    public static Sheet load(File sheetFile, int noteCount, Progress progress) throws IOException {
+        long length = sheetFile.length();
+        long modified = sheetFile.lastModified();
+
+        if (Timeline.isTimed(sheetFile)) {
+            Sheet sheet = Timeline.read(sheetFile, noteCount);
+            if (progress != null) {
+                progress.update(length, length);
+            }
+            return sheet;
+        }
+
+        if (length >= MAP_THRESHOLD) {
+            Sheet sheet = MappedSheet.open(sheetFile, noteCount, SKIP_INVALID);
+            if (progress != null) {
+                progress.update(length, length);
+            }
+            return sheet;
+        }
+
+        Sheet sheet = null;
+        try {
+            sheet = CompiledSheet.read(sheetFile, noteCount);
+        } catch (IOException e) {
+            checkCancelled();
+            System.out.println("ERROR: Failed to read compiled sheet!");
+        }
+
+        if (sheet == null) {
+            CRC32 crc = new CRC32();
+            List<SheetError> skipped = SKIP_INVALID ? new ArrayList<>() : null;
+
+            if (length >= PARALLEL_THRESHOLD) {
+                sheet = readParallel(sheetFile, noteCount, crc, skipped, progress);
+            }
+            else {
+                sheet = read(sheetFile, noteCount, crc, skipped, progress);
+            }
+
+            // only sheets without errors are compiled, a compiled sheet is
+            // loaded even when invalid notes are not skipped
+            if (skipped != null && !skipped.isEmpty()) {
+                System.out.println("ERROR: Skipped invalid notes in " + sheetFile.getName() + ":");
+                printErrors(skipped);
+            }
+            else {
+                try {
+                    checkCancelled();
+                    CompiledSheet.write(sheetFile, length, modified, (int) crc.getValue(), sheet);
+                } catch (InterruptedIOException e) {
+                    throw e;
+                } catch (IOException e) {
+                    System.out.println("ERROR: Failed to write compiled sheet!");
+                }
+            }
+        }
+        else if (progress != null) {
+            progress.update(length, length);
+        }
+
+        return sheet;
+    }
+
+    /**
+     * Reads and parses a whole sheet file, regardless of its size.
+     *
+     * @param sheetFile file containing the sheet
+     * @param noteCount number of available notes, indexes must be from 1 to
+     *                  noteCount
+     * @return          parsed sheet
+     * @throws IOException  if the file cannot be read or has invalid notes
+     */
+    public static Sheet read(File sheetFile, int noteCount) throws IOException {
+        return read(sheetFile, noteCount, null, null, null);
+    }
+
+    /**
+     * Reads and parses a whole sheet file, hashing its contents in the same
+     * read.
+     *
+     * @param sheetFile file containing the sheet
+     * @param noteCount number of available notes, indexes must be from 1 to
+     *                  noteCount
+     * @param crc       updated with the contents of the file
+     * @return          parsed sheet
+     * @throws IOException  if the file cannot be read or has invalid notes
+     */
+    public static Sheet read(File sheetFile, int noteCount, CRC32 crc) throws IOException {
+        return read(sheetFile, noteCount, crc, null, null);
+    }
+
+    /**
+     * Reads and parses a whole sheet file, optionally hashing its contents.
+     *
+     * @param sheetFile file containing the sheet
+     * @param noteCount number of available notes
+     * @param crc       updated with the contents of the file, or null
+     * @param skipped   receives the invalid notes skipped, or null to fail on
+     *                  invalid notes
+     * @param progress  receives the progress, or null
+     * @return          parsed sheet
+     * @throws IOException  if the file cannot be read or has invalid notes
+     */
+    private static Sheet read(File sheetFile, int noteCount, CRC32 crc,
+            List<SheetError> skipped, Progress progress) throws IOException {
+        SheetTokenizer tokenizer = new SheetTokenizer(noteCount, skipped != null);
+        ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        long bytesRead = 0;
+
+        try (FileChannel channel = FileChannel.open(sheetFile.toPath(),
+                StandardOpenOption.READ)) {
+            long totalBytes = channel.size();
+
+            while (channel.read(buffer) != -1) {
+                checkCancelled();
+
+                buffer.flip();
+                if (crc != null) {
+                    crc.update(buffer.array(), 0, buffer.limit());
+                }
+                bytesRead += buffer.limit();
+                tokenizer.feed(buffer);
+                buffer.clear();
+
+                if (progress != null) {
+                    progress.update(bytesRead, totalBytes);
+                }
+            }
+        }
+
+        Sheet sheet = tokenizer.finish();
+        if (skipped != null) {
+            skipped.addAll(tokenizer.getErrors());
+        }
+
+        return sheet;
+    }
+
+    /**
+     * Reads a whole sheet file into memory, then parses it on all cores.
+     *
+     * @param sheetFile file containing the sheet
+     * @param noteCount number of available notes
+     * @param crc       updated with the contents of the file
+     * @param skipped   receives the invalid notes skipped, or null to fail on
+     *                  invalid notes
+     * @param progress  receives the progress of reading, or null
+     * @return          parsed sheet
+     * @throws IOException  if the file cannot be read, or SheetFormatException
+     *                      listing every invalid note
+     */
+    private static Sheet readParallel(File sheetFile, int noteCount, CRC32 crc,
+            List<SheetError> skipped, Progress progress) throws IOException {
+        byte[] data;
+
+        try (FileChannel channel = FileChannel.open(sheetFile.toPath(),
+                StandardOpenOption.READ)) {
+            long totalBytes = channel.size();
+            if (totalBytes > Integer.MAX_VALUE) {
+                throw new IOException("Sheet is too large to read");
+            }
+
+            data = new byte[(int) totalBytes];
+            ByteBuffer buffer = ByteBuffer.wrap(data);
+
+            while (buffer.hasRemaining() && channel.read(buffer) != -1) {
+                checkCancelled();
+
+                if (progress != null) {
+                    progress.update(buffer.position(), totalBytes);
+                }
+            }
+
+            // the file may have shrunk since its size was taken
+            if (buffer.hasRemaining()) {
+                data = Arrays.copyOf(data, buffer.position());
+            }
+        }
+
+        crc.update(data, 0, data.length);
+        return ParallelSheetParser.parse(data, noteCount, skipped);
+    }
+
+    /**
+     * Parses the contents of a sheet.
+     *
+     * @param data      raw contents of the sheet
+     * @param noteCount number of available notes, indexes must be from 1 to
+     *                  noteCount
+     * @return          parsed sheet
+     * @throws IOException  SheetFormatException listing every invalid note,
+     *                      or if there are no notes
+     */
+    public static Sheet parse(byte[] data, int noteCount) throws IOException {
+        SheetTokenizer tokenizer = new SheetTokenizer(noteCount);
+        tokenizer.feed(ByteBuffer.wrap(data));
+
+        return tokenizer.finish();
+    }
+
+    /**
+     * Prints the errors of a sheet, one per line. Only the first errors are
+     * printed when there are very many.
+     *
+     * @param errors    errors in the order they appear
+     */
+    public static void printErrors(List<SheetError> errors) {
+        int printed = Math.min(errors.size(), ERRORS_PRINTED);
+
+        for (int i = 0; i < printed; i++) {
+            System.out.println("ERROR:   " + errors.get(i));
+        }
+        if (errors.size() > printed) {
+            System.out.println("ERROR:   and " + (errors.size() - printed) + " more");
+        }
+    }
+
+    /**
+     * Stops a load whose thread was interrupted.
+     *
+     * @throws InterruptedIOException   if the thread was interrupted
+     */
+    private static void checkCancelled() throws InterruptedIOException {
+        if (Thread.currentThread().isInterrupted()) {
+            throw new InterruptedIOException("Sheet loading was cancelled");
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package com.taptiles;
+
+
+/**
+ * Parses the notes of a sheet from bytes fed in any number of buffers, so a
+ * file can be streamed through a small buffer. Notes are decimal indexes
+ * separated by any amount of whitespace (spaces, tabs or newlines), and are
+ * collected straight into a growable int array without creating strings or
+ * boxing.
+ *
+ * Invalid tokens do not stop parsing. Every one of them is collected with its
+ * line, column and text, then either reported together when the sheet is
+ * finished or skipped, leaving a sheet of the valid notes.
+ */
+
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+
+public class SheetTokenizer {
+    private final int NOTE_COUNT;   // number of available notes
+    private final boolean SKIP_INVALID;
+
+    private final List<SheetError> ERRORS;
+
+    // first bytes of the token being parsed, for its text if it is invalid
+    private final byte[] TOKEN;
+
+    private int[] notes;            // parsed notes, grown as needed
+    private int count;              // number of parsed notes
+
+    private int value;              // value of the note being parsed
+    private boolean inNote;         // true while within a token
+    private String reason;          // why the token is invalid, or null
+    private int tokenLength;        // length of the token in bytes
+    private long noteStart;         // offset of the note being parsed
+    private int noteLine;           // line of the note being parsed
+    private int noteColumn;         // column of the note being parsed
+    private long offset;            // number of bytes consumed so far
+    private int line;               // line of the next byte, from 1
+    private long lineStart;         // offset of the first byte of the line
+
+    /**
+     * Creates a tokenizer for an empty sheet, failing on invalid tokens.
+     *
+     * @param noteCount number of available notes, indexes must be from 1 to
+     *                  noteCount
+     */
+    public SheetTokenizer(int noteCount) {
+        this(noteCount, false);
+    }
+
+    /**
+     * Creates a tokenizer for an empty sheet.
+     *
+     * @param noteCount     number of available notes, indexes must be from 1
+     *                      to noteCount
+     * @param skipInvalid   true to leave invalid tokens out of the sheet, false
+     *                      to fail when the sheet is finished
+     */
+    public SheetTokenizer(int noteCount, boolean skipInvalid) {
+        NOTE_COUNT = noteCount;
+        SKIP_INVALID = skipInvalid;
+
+        ERRORS = new ArrayList<>(0);
+        TOKEN = new byte[SheetError.TOKEN_LIMIT];
+
+        notes = new int[1024];
+        line = 1;
+    }
+
+    /**
+     * Parses all remaining bytes of a buffer. A note may continue into the
+     * next buffer fed.
+     *
+     * @param buffer    next part of the sheet
+     */
+    public void feed(ByteBuffer buffer) {
+        while (buffer.hasRemaining()) {
+            byte b = buffer.get();
+
+            if (b == ' ' || b == '\n' || b == '\r' || b == '\t') {
+                endNote();
+
+                if (b == '\n') {
+                    line++;
+                    lineStart = offset + 1;
+                }
+            }
+            else {
+                if (!inNote) {
+                    noteStart = offset;
+                    noteLine = line;
+                    noteColumn = (int) (offset - lineStart) + 1;
+                    inNote = true;
+                }
+
+                if (tokenLength < TOKEN.length) {
+                    TOKEN[tokenLength] = b;
+                }
+                tokenLength++;
+
+                if (reason != null) {
+                    // rest of an invalid token
+                }
+                else if (b >= '0' && b <= '9') {
+                    value = value * 10 + (b - '0');
+
+                    // checked per digit so that long tokens cannot overflow
+                    if (value > NOTE_COUNT) {
+                        reason = SheetError.outOfRange(NOTE_COUNT);
+                    }
+                }
+                else {
+                    reason = SheetError.NOT_A_NUMBER;
+                }
+            }
+
+            offset++;
+        }
+    }
+
+    /**
+     * Adds the note being parsed, if any, to the parsed notes, or its error
+     * to the errors if it is not a valid note.
+     */
+    private void endNote() {
+        if (!inNote) {
+            return;
+        }
+
+        if (reason == null && value < 1) {
+            reason = SheetError.outOfRange(NOTE_COUNT);
+        }
+
+        if (reason != null) {
+            ERRORS.add(new SheetError(noteStart, noteLine, noteColumn,
+                    SheetError.tokenText(TOKEN, 0, tokenLength), reason));
+        }
+        else {
+            if (count == notes.length) {
+                notes = Arrays.copyOf(notes, count * 2);
+            }
+
+            notes[count++] = value;
+        }
+
+        value = 0;
+        reason = null;
+        tokenLength = 0;
+        inNote = false;
+    }
+
+    /**
+     * Ends the sheet and returns its notes.
+     *
+     * @return  sheet of the parsed notes
+     * @throws IOException  SheetFormatException if there are invalid tokens
+     *                      and they are not skipped, or there are no valid
+     *                      notes
+     */
+    public Sheet finish() throws IOException {
+        endNote();
+
+        if (!ERRORS.isEmpty() && (!SKIP_INVALID || count == 0)) {
+            throw new SheetFormatException(new ArrayList<>(ERRORS));
+        }
+        else if (count == 0) {
+            throw new IOException("Sheet has no notes");
+        }
+
+        return new ArraySheet(Arrays.copyOf(notes, count));
+    }
+
+    /**
+     * Returns the invalid tokens found so far, in the order they appear.
+     *
+     * @return  unmodifiable list of errors
+     */
+    public List<SheetError> getErrors() {
+        return Collections.unmodifiableList(ERRORS);
+    }
+}
@@ -0,0 +1,55 @@
+package com.taptiles;
+
+
+/**
+ * Durations of the phases of starting the game, such as creating the UI,
+ * loading the notes and showing the Stage, printed once they are all known.
+ * Phases may be recorded from any thread, since the notes are loaded in the
+ * background while the menu shows.
+ */
+
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+
+public class StartupReport {
+    private final List<String> PHASES;      // name of each phase recorded
+    private final List<Long> NANOS;         // duration of each phase
+
+    public StartupReport() {
+        PHASES = new ArrayList<>();
+        NANOS = new ArrayList<>();
+    }
+
+    /**
+     * Records a phase ending now.
+     *
+     * @param phase         name of the phase
+     * @param startNanos    System.nanoTime when the phase started
+     */
+    public synchronized void record(String phase, long startNanos) {
+        PHASES.add(phase);
+        NANOS.add(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Returns the phases in the order they ended, with the time since the
+     * JVM started.
+     *
+     * @return  text of the report on one line
+     */
+    public synchronized String summary() {
+        StringBuilder text = new StringBuilder("Startup:");
+
+        for (int i = 0; i < PHASES.size(); i++) {
+            text.append(String.format(Locale.ROOT, " %s %.1f ms,",
+                    PHASES.get(i), NANOS.get(i) / 1e6));
+        }
+
+        long uptime = ManagementFactory.getRuntimeMXBean().getUptime();
+        return text.append(" JVM uptime ").append(uptime).append(" ms").toString();
+    }
+}
@@ -0,0 +1,130 @@
+package com.taptiles;
+
+
+/**
+ * Voice synthesizing each note from a Wavetable shared by all voices, so any
+ * key of a piano can be played with nothing loaded. The tone is shaped by an
+ * ADSR envelope: a short linear attack, an exponential decay to the sustain
+ * level, which is held for a while, then an exponential release. Low keys
+ * ring longer than high keys, as on a piano.
+ *
+ * All state is a handful of fields set when a note starts, so neither
+ * starting nor mixing a note allocates.
+ */
+
+
+public class SynthVoice extends Voice {
+    private static final double ATTACK = 0.004;         // seconds
+    private static final double DECAY = 0.25;           // seconds to fall by 1/e
+    private static final double SUSTAIN = 0.35;         // level after the decay
+    private static final double HOLD = 0.6;             // seconds at the sustain level
+    private static final double RELEASE = 0.3;          // seconds to fall by 1/e
+    private static final double SETTLED = 0.01;         // distance to the sustain ending the decay
+    private static final double SILENCE = 1e-4;         // level ending a note, -80 dB
+    private static final double GAIN = 0.3 * Short.MAX_VALUE;   // peak of one voice
+    private static final int MIDDLE_KEY = 60;           // key of the times above
+
+    // stages of the envelope
+    private static final int ATTACKING = 0;
+    private static final int DECAYING = 1;
+    private static final int SUSTAINING = 2;
+    private static final int RELEASING = 3;
+
+    private final Wavetable WAVETABLE;
+    private final int[] KEYS;           // MIDI key of each note
+    private final int CHANNELS;
+    private final double RATE;          // frames per second
+
+    private int key;                    // key playing
+    private double phase;               // position in the cycle of the key
+    private double step;                // phase added per frame
+
+    private int stage;                  // stage of the envelope
+    private double level;               // envelope, from 0 to 1
+    private double attackStep;          // level added per frame of the attack
+    private double decayFactor;         // distance to the target kept per frame
+    private double releaseFactor;
+    private int holdFrames;             // frames left at the sustain level
+
+    /**
+     * Creates a silent voice.
+     *
+     * @param wavetable cycles of the tone, in the format of the mixer
+     * @param noteKeys  MIDI key of each note, in the order of their indexes
+     * @throws IllegalArgumentException if a key is not on a piano
+     */
+    public SynthVoice(Wavetable wavetable, int[] noteKeys) {
+        for (int key : noteKeys) {
+            if (!Wavetable.hasKey(key)) {
+                throw new IllegalArgumentException("Key " + key + " is not on a piano");
+            }
+        }
+
+        WAVETABLE = wavetable;
+        KEYS = noteKeys.clone();
+        CHANNELS = wavetable.getFormat().getChannels();
+        RATE = wavetable.getFormat().getSampleRate();
+        stage = RELEASING;
+    }
+
+    @Override
+    public void start(int note) {
+        key = KEYS[note - 1];
+        phase = 0;
+        step = WAVETABLE.getStep(key);
+
+        // an octave lower rings half again as long
+        double length = Math.pow(1.5, (MIDDLE_KEY - key) / 12.0);
+
+        stage = ATTACKING;
+        level = 0;
+        attackStep = 1 / (ATTACK * RATE);
+        decayFactor = Math.exp(-1 / (DECAY * length * RATE));
+        releaseFactor = Math.exp(-1 / (RELEASE * length * RATE));
+        holdFrames = (int) (HOLD * length * RATE);
+    }
+
+    @Override
+    public boolean mix(int[] mix, int frames) {
+        for (int frame = 0; frame < frames; frame++) {
+            switch (stage) {
+                case ATTACKING:
+                    level += attackStep;
+                    if (level >= 1) {
+                        level = 1;
+                        stage = DECAYING;
+                    }
+                    break;
+                case DECAYING:
+                    level = SUSTAIN + (level - SUSTAIN) * decayFactor;
+                    if (level - SUSTAIN < SETTLED) {
+                        stage = SUSTAINING;
+                    }
+                    break;
+                case SUSTAINING:
+                    if (--holdFrames <= 0) {
+                        stage = RELEASING;
+                    }
+                    break;
+                default:
+                    level *= releaseFactor;
+                    if (level < SILENCE) {
+                        return false;
+                    }
+                    break;
+            }
+
+            int sample = (int) (WAVETABLE.getSample(key, phase) * level * GAIN);
+            for (int channel = 0; channel < CHANNELS; channel++) {
+                mix[frame * CHANNELS + channel] += sample;
+            }
+
+            phase += step;
+            if (phase >= WAVETABLE.getCycleSize()) {
+                phase -= WAVETABLE.getCycleSize();
+            }
+        }
+
+        return true;
+    }
+}
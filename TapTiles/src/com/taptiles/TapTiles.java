@@ -13,72 +13,101 @@ package com.taptiles;
 
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.LinkedList;
-import java.util.Objects;
-import java.util.Queue;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Locale;
 import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import javafx.animation.AnimationTimer;
 import javafx.application.Application;
+import javafx.concurrent.Task;
 import javafx.geometry.Insets;
 import javafx.geometry.Pos;
 import javafx.scene.Scene;
 import javafx.scene.control.Button;
 import javafx.scene.control.Label;
+import javafx.scene.control.ListCell;
+import javafx.scene.control.ListView;
+import javafx.scene.input.KeyCode;
 import javafx.scene.input.KeyEvent;
 import javafx.scene.layout.Background;
 import javafx.scene.layout.BackgroundFill;
 import javafx.scene.layout.CornerRadii;
 import javafx.scene.layout.HBox;
 import javafx.scene.layout.Pane;
-import javafx.scene.layout.StackPane;
 import javafx.scene.layout.VBox;
-import javafx.scene.media.AudioClip;
 import javafx.scene.paint.Color;
-import javafx.scene.shape.Rectangle;
+import javafx.stage.DirectoryChooser;
 import javafx.stage.FileChooser;
 import javafx.stage.Stage;
+import javax.sound.sampled.LineUnavailableException;
 
 
 public class TapTiles extends Application {
+    // times the phases of startup, first so that the constructor includes
+    // the initializers of all other fields
+    private final long CREATED_AT = System.nanoTime();
+    private final StartupReport STARTUP = new StartupReport();
+    
     private final Integer WIN_X = 400;      // window width
     private final Integer WIN_Y = 450;      // window height                    
     
-    private final Integer TILE_X = 100;     // tile width
     private final Integer TILE_Y = 150;     // tile height
     
-    private final Integer GUIDE_X = 100;    // background for key guide width
-    private final Integer GUIDE_Y = 40;     // background for key guide height
-    
     private final Integer BTN_X = 100;      // menu button width
     private final Integer BTN_Y = 100;      // menu button height
     
-    private final Integer TILE_COUNT = 4;   // number of total tiles            
+    private final Integer LANE_COUNT = 4;   // number of lanes
+    private final Integer TILE_POOL = 8;    // number of tiles allocated up front
     
-    // arraylist to store rectangle objects for the tiles
-    private final ArrayList<Rectangle> TILE_RECT;
+    // blends tile positions between the last two steps when rendering
+    private final boolean INTERPOLATE = Boolean.parseBoolean(
+            System.getProperty("taptiles.interpolate", "true"));
     
-    // used to track the frontmost scrolling tile
-    // index 0: contains position
-    // index 1: contains tile index from TILE_RECT
-    private final Queue<Integer[]> TILE_QUEUE;
+    // backend drawing the playfield, either "node" or "canvas"
+    private final String RENDERER_TYPE = 
+            System.getProperty("taptiles.renderer", "node");
     
-    // tile moves at a factor of TILE_Y to avoid space between two tiles
-    // because tile is placed at -TILE_Y
-    private final Integer[] SPEED_MOVE = { 2, 3, 5, 10, 15 };
+    // game state, the ui only mirrors the engine
+    private final GameEngine ENGINE;
     
-    private final Integer[] SPEED_LEVEL = { 10, 25, 45, 75, 110 };
+    // draws the tiles, key guides and score from the engine
+    private final TileRenderer RENDERER;
     
-    private final Label SCORE_ACTIVE;
     private final Label SCORE_HIGH;
     
     private final String KEYS = "DFJK";
     
-    private final HashMap<String, Boolean> KEYS_ACTIVE; // tracks pressed keys
-    private final ArrayList<Rectangle> KEYS_GUIDE;      // ui for set keys
+    // lane of each key indexed by KeyCode ordinal, -1 for keys without a lane
+    private final int[] KEYS_LANE;
+    
+    // tracks pressed keys, indexed by KeyCode ordinal
+    private final boolean[] KEYS_ACTIVE;
+    
+    private final KeyCode STATS_KEY = KeyCode.F3;   // toggles the stats overlay
+    
+    // minimum time between updates of the stats overlay
+    private final long STATS_INTERVAL = 250_000_000L;
+    
+    // prints a summary of the stats at the end of each game
+    private final boolean STATS_LOG = Boolean.getBoolean("taptiles.stats.log");
+    
+    // per-pulse measurements of the game loop
+    private final FrameStats FRAME_STATS;
+    
+    // latency from key events to judgement and sound
+    private final LatencyStats LATENCY_STATS;
+    
+    private final Label STATS_OVERLAY;          // ui display for the stats
+    
+    // arrival time of the last judged press of each lane, indexed by lane,
+    // or 0 if the last press was ignored
+    private final long[] KEYS_PRESSED_AT;
     
     // global instance of menu ui to avoid creating menu from scratch each call
     private final VBox MENU_PANE;   
@@ -95,55 +124,129 @@ public class TapTiles extends Application {
         "21_g#7.wav", "22_a7.wav", "23_b7.wav", 
     };
     
-    // global instance of audio to avoid loading wav each call
-    private final ArrayList<AudioClip> SOUND_PLAYER;
+    // plays the notes through a software mixer, pitched from the wav file
+    // taptiles.audio.reference by it if taptiles.audio is "pitched",
+    // synthesized by it if "synth", or through one AudioClip per note if "clip"
+    private final String SOUND_BACKEND = System.getProperty("taptiles.audio", "mixer");
+    private final String SOUND_REFERENCE = System.getProperty("taptiles.audio.reference", "13_c7.wav");
+    private final NotePlayer SOUND_PLAYER;
+    
+    // completes once the notes are loaded in the background
+    private final CompletableFuture<Void> SOUND_LOADING;
+    
+    // plays notes when a tile is hit instead of when the key is released
+    private final boolean SOUND_ON_PRESS = Boolean.getBoolean("taptiles.sound.onpress");
     
     private final Label SOUND_STATUS;               // ui display for loaded sheet
     
-    private final ArrayList<Integer> SOUND_SHEET;   // indexes of wav from sheet 
+    private final Button LOAD_BUTTON;               // loads or cancels a sheet
+    
+    // loads sheets off the ui thread, one at a time
+    private final ExecutorService SHEET_EXECUTOR;
+    
+    // scans the library apart from SHEET_EXECUTOR, so a scan never holds up
+    // loading a sheet
+    private final ExecutorService LIBRARY_EXECUTOR;
+    
+    // recently loaded sheets, so switching between sheets skips reading them
+    private final SheetCache SHEET_CACHE = new SheetCache(
+            Long.getLong("taptiles.sheet.cacheBytes", 64L * 1024 * 1024));
+    
+    // converts MIDI files chosen as sheets, from the first track with notes
+    // unless taptiles.midi.track is set, into timed sheets if taptiles.midi.timed
+    private final MidiImporter MIDI_IMPORTER;
+    private final int MIDI_TRACK = Integer.getInteger("taptiles.midi.track", -1);
+    private final boolean MIDI_TIMED = Boolean.getBoolean("taptiles.midi.timed");
+    
+    // index of the sheets in the directories added to the library
+    private final SheetLibrary LIBRARY;
+    
+    private final VBox LIBRARY_PANE;                // song list of the library
+    private final ListView<SheetLibrary.Entry> LIBRARY_LIST;
+    private final Label LIBRARY_STATUS;             // ui display for scans
     
     private File sheetFile;
     
-    private Boolean isGameRunning;
+    private SheetTask sheetTask;                    // sheet being loaded
+    
+    private boolean isLibraryOpen;                  // index file was read
+    private boolean isLibraryScanning;
+    
+    private Sheet soundSheet;                       // indexes of wav from sheet 
+    
     private Boolean isKeyHighlighted;
     private Boolean isSheetLoaded;
     
-    private Integer score;
-    private Integer hiScore;
-    
     // global instance of animation timer to allow start/stop anywhere
     private AnimationTimer tileTimer;
     
     public TapTiles() {
-        isGameRunning = false;
         isKeyHighlighted = true;
         isSheetLoaded = false;
         
-        score = 0;
-        hiScore = 0;
+        ENGINE = new GameEngine(LANE_COUNT, TILE_POOL, TILE_Y, WIN_Y, new Random());
         
-        TILE_RECT = new ArrayList<>();
-        
-        TILE_QUEUE = new LinkedList<>();
+        if (RENDERER_TYPE.equals("canvas")) {
+            RENDERER = new CanvasRenderer(ENGINE, KEYS, WIN_X, WIN_Y);
+        }
+        else {
+            RENDERER = new NodeRenderer(ENGINE, KEYS, WIN_X, WIN_Y);
+        }
         
-        SCORE_ACTIVE = new Label();
         SCORE_HIGH = new Label();
         
-        KEYS_ACTIVE = new HashMap<>();
-        KEYS_GUIDE = new ArrayList<>();
+        KEYS_LANE = new int[KeyCode.values().length];
+        KEYS_ACTIVE = new boolean[KeyCode.values().length];
+        
+        FRAME_STATS = new FrameStats();
+        LATENCY_STATS = new LatencyStats();
+        STATS_OVERLAY = new Label();
+        KEYS_PRESSED_AT = new long[LANE_COUNT];
         
         MENU_PANE = new VBox();
         
-        SOUND_PLAYER = new ArrayList<>();
+        long soundStart = System.nanoTime();
+        SOUND_PLAYER = initSound();
+        STARTUP.record("initSound", soundStart);
+        
+        SOUND_LOADING = SOUND_PLAYER.loadAll().whenComplete((result, error) -> {
+            STARTUP.record("notes loaded", soundStart);
+            
+            if (error != null) {
+                System.out.println("ERROR: Failed to load notes!");
+            }
+        });
         SOUND_STATUS = new Label();
-        SOUND_SHEET = new ArrayList<>();
+        LOAD_BUTTON = new Button();
+        
+        SHEET_EXECUTOR = Executors.newSingleThreadExecutor(task -> {
+            Thread thread = new Thread(task, "sheet-loader");
+            thread.setDaemon(true);
+            return thread;
+        });
+        LIBRARY_EXECUTOR = Executors.newSingleThreadExecutor(task -> {
+            Thread thread = new Thread(task, "library-scanner");
+            thread.setDaemon(true);
+            return thread;
+        });
         
-        initSound();
-        initRect();
+        LIBRARY = new SheetLibrary(new File(System.getProperty("taptiles.library.index",
+                System.getProperty("user.home") + "/.taptiles/library.idx")), 
+                SOUND_NOTES.length);
+        MIDI_IMPORTER = new MidiImporter(SOUND_NOTES, LANE_COUNT);
+        LIBRARY_PANE = new VBox();
+        LIBRARY_LIST = new ListView<>();
+        LIBRARY_STATUS = new Label();
+        
+        initKeys();
         initMenuPane();
+        initLibraryPane();
+        initStats();
         
         updateScoreInfo();
         updateSheetInfo();
+        
+        STARTUP.record("constructor", CREATED_AT);
     }
     
     public static void main(String[] args) {
@@ -170,51 +273,6 @@ public class TapTiles extends Application {
         return Integer.parseInt(version);
     }
     
-    /**
-     * Returns HBox object with a rectangle background and key label.
-     * 
-     * @param key       the character of a key to display
-     * @param rectIndex index of rectangle to set as as background for key label
-     * @return          hbox containing the rectangle and key label
-     */
-    private HBox createGuideTile(Character key, Integer rectIndex) {
-        Label lblKey = new Label(key.toString());
-        
-        StackPane pnTileKey = new StackPane();
-        pnTileKey.setAlignment(Pos.BOTTOM_CENTER);
-        pnTileKey.getChildren().add(KEYS_GUIDE.get(rectIndex));
-        pnTileKey.getChildren().add(lblKey);
-        
-        HBox pnTile = new HBox();
-        pnTile.setAlignment(Pos.CENTER);
-        pnTile.setPrefWidth(WIN_X);
-        pnTile.setPrefHeight(100);
-        pnTile.getChildren().add(pnTileKey);
-        
-        return pnTile;
-    }
-    
-    /**
-     * Adds a new rectangle representing a tile to an arraylist containing all
-     * the tiles. Defaults the y-position of the tile outside the visible area.
-     */
-    private void createTileRect() {
-        Rectangle rectTile = new Rectangle(0, -TILE_Y, TILE_X, TILE_Y);
-        
-        TILE_RECT.add(rectTile);
-    }
-    
-    /**
-     * Adds a new rectangle for the guide label to an arraylist containing all
-     * the background rectangles for the guide labels.
-     */
-    private void createGuideRect() {
-        Rectangle rectTile = new Rectangle(GUIDE_X, GUIDE_Y);
-        rectTile.setFill(Color.LIGHTGRAY);
-        
-        KEYS_GUIDE.add(rectTile);
-    }
-    
     /**
      * Returns a VBox with all the controls needed for the menu. Required as a
      * separate function an even requires a parent window.
@@ -235,16 +293,24 @@ public class TapTiles extends Application {
             restartAnim();
         });
         
-        Button btnLoad = new Button();
-        btnLoad.setMinWidth(BTN_X);
-        btnLoad.setMaxWidth(BTN_Y);
-        btnLoad.setText("Load");
-        btnLoad.setOnAction(event -> {
+        LOAD_BUTTON.setMinWidth(BTN_X);
+        LOAD_BUTTON.setMaxWidth(BTN_Y);
+        LOAD_BUTTON.setText("Load");
+        LOAD_BUTTON.setOnAction(event -> {
             loadSheet(parent);
         });
         
+        Button btnLibrary = new Button();
+        btnLibrary.setMinWidth(BTN_X);
+        btnLibrary.setMaxWidth(BTN_Y);
+        btnLibrary.setText("Library");
+        btnLibrary.setOnAction(event -> {
+            openLibrary();
+        });
+        
         MENU_PANE.getChildren().add(btnStart);
-        MENU_PANE.getChildren().add(btnLoad);
+        MENU_PANE.getChildren().add(LOAD_BUTTON);
+        MENU_PANE.getChildren().add(btnLibrary);
         MENU_PANE.getChildren().add(SCORE_HIGH);
         MENU_PANE.getChildren().add(SOUND_STATUS);
         
@@ -270,26 +336,253 @@ public class TapTiles extends Application {
     }
     
     /**
-     * Initializes rectangles used as tiles or backgrounds.
+     * Returns the VBox of the library, listing the sheets of the library with
+     * controls to add a directory, rescan and return to the menu.
+     * 
+     * @param parent    parent window needed for the directory dialog
+     * @return          vbox containing the song list and controls
+     * @see ListView
+     */
+    private VBox createLibraryPane(Stage parent) {
+        Button btnAdd = new Button();
+        btnAdd.setText("Add folder");
+        btnAdd.setOnAction(event -> {
+            DirectoryChooser dialog = new DirectoryChooser();
+            File directory = dialog.showDialog(parent);
+            
+            if (directory != null) {
+                LIBRARY.addDirectory(directory);
+                scanLibrary();
+            }
+        });
+        
+        Button btnRescan = new Button();
+        btnRescan.setText("Rescan");
+        btnRescan.setOnAction(event -> {
+            scanLibrary();
+        });
+        
+        Button btnBack = new Button();
+        btnBack.setText("Back");
+        btnBack.setOnAction(event -> {
+            LIBRARY_PANE.setVisible(false);
+            MENU_PANE.setVisible(true);
+        });
+        
+        HBox controls = new HBox();
+        controls.setAlignment(Pos.CENTER);
+        controls.getChildren().add(btnAdd);
+        controls.getChildren().add(btnRescan);
+        controls.getChildren().add(btnBack);
+        
+        LIBRARY_PANE.getChildren().add(LIBRARY_LIST);
+        LIBRARY_PANE.getChildren().add(LIBRARY_STATUS);
+        LIBRARY_PANE.getChildren().add(controls);
+        
+        BackgroundFill bgcMenuColor = new BackgroundFill(
+                Color.rgb(177, 177, 177, 0.7),
+                CornerRadii.EMPTY, 
+                Insets.EMPTY);
+        
+        LIBRARY_PANE.setBackground(new Background(bgcMenuColor));
+        
+        return LIBRARY_PANE;
+    }
+    
+    /**
+     * Initializes library position, size and the song list. Double clicking a
+     * sheet loads it.
+     * 
+     * @see ListCell
+     */
+    private void initLibraryPane() {
+        LIBRARY_PANE.setAlignment(Pos.CENTER);
+        LIBRARY_PANE.setPrefHeight(WIN_Y);
+        LIBRARY_PANE.setPrefWidth(WIN_X);
+        LIBRARY_PANE.setVisible(false);
+        
+        LIBRARY_LIST.setPlaceholder(new Label("No sheets, add a folder"));
+        LIBRARY_LIST.setCellFactory(list -> new ListCell<SheetLibrary.Entry>() {
+            @Override
+            protected void updateItem(SheetLibrary.Entry entry, boolean empty) {
+                super.updateItem(entry, empty);
+                
+                if (empty || entry == null) {
+                    setText(null);
+                }
+                else if (entry.isValid()) {
+                    setText(String.format(Locale.ROOT, "%s (%d notes, %d-%d)", 
+                            entry.getName(), entry.getNoteCount(), 
+                            entry.getMinNote(), entry.getMaxNote()));
+                }
+                else {
+                    setText(entry.getName() + " (invalid)");
+                }
+            }
+        });
+        LIBRARY_LIST.setOnMouseClicked(event -> {
+            SheetLibrary.Entry entry = LIBRARY_LIST.getSelectionModel().getSelectedItem();
+            
+            if (event.getClickCount() == 2 && entry != null && entry.isValid()) {
+                LIBRARY_PANE.setVisible(false);
+                MENU_PANE.setVisible(true);
+                
+                startSheetLoad(entry.getFile());
+            }
+        });
+    }
+    
+    /**
+     * Shows the library in place of the menu. The index file is read the
+     * first time, then the directories are rescanned in the background.
+     */
+    private void openLibrary() {
+        if (!isLibraryOpen) {
+            LIBRARY.open();
+            isLibraryOpen = true;
+            
+            LIBRARY_LIST.getItems().setAll(LIBRARY.getEntries());
+            scanLibrary();
+        }
+        
+        MENU_PANE.setVisible(false);
+        LIBRARY_PANE.setVisible(true);
+    }
+    
+    /**
+     * Rescans the library on LIBRARY_EXECUTOR, updating the song list when the
+     * scan finishes. Does nothing while a scan is running.
+     */
+    private void scanLibrary() {
+        if (isLibraryScanning) {
+            return;
+        }
+        
+        Task<List<SheetLibrary.Entry>> task = new Task<List<SheetLibrary.Entry>>() {
+            @Override
+            protected List<SheetLibrary.Entry> call() throws IOException {
+                return LIBRARY.scan();
+            }
+        };
+        task.setOnSucceeded(event -> {
+            isLibraryScanning = false;
+            
+            LIBRARY_LIST.getItems().setAll(task.getValue());
+            LIBRARY_STATUS.setText(task.getValue().size() + " sheets");
+        });
+        task.setOnFailed(event -> {
+            System.out.println("ERROR: Failed to scan sheet library!");
+            isLibraryScanning = false;
+            
+            LIBRARY_STATUS.setText("Scan failed");
+        });
+        
+        isLibraryScanning = true;
+        LIBRARY_STATUS.setText("Scanning...");
+        
+        LIBRARY_EXECUTOR.execute(task);
+    }
+    
+    /**
+     * Initializes the lookup of lanes from key codes, so that a key event is
+     * resolved without comparing strings.
+     * 
+     * @see KeyCode
      */
-    private void initRect() {
-        for (int i = 0; i < TILE_COUNT; i++) {
-            createTileRect();
-            createGuideRect();
+    private void initKeys() {
+        Arrays.fill(KEYS_LANE, -1);
+        
+        for (int i = 0; i < KEYS.length(); i++) {
+            KeyCode code = KeyCode.valueOf(String.valueOf(KEYS.charAt(i)));
+            KEYS_LANE[code.ordinal()] = i;
         }
     }
     
+    /**
+     * Initializes the stats overlay, hidden unless stats are enabled with
+     * -Dtaptiles.stats=true or -Dtaptiles.stats.log=true.
+     */
+    private void initStats() {
+        STATS_OVERLAY.getStyleClass().add("stats");
+        STATS_OVERLAY.setMouseTransparent(true);
+        
+        setStatsEnabled(Boolean.getBoolean("taptiles.stats") || STATS_LOG);
+    }
+    
+    /**
+     * Turns the recording and overlay of the stats on or off.
+     * 
+     * @param enabled   true to record and show the stats
+     */
+    private void setStatsEnabled(boolean enabled) {
+        FRAME_STATS.setEnabled(enabled);
+        LATENCY_STATS.setEnabled(enabled);
+        
+        STATS_OVERLAY.setVisible(enabled);
+        STATS_OVERLAY.setText(getStatsSummary());
+    }
+    
+    /**
+     * Returns the summary of all stats shown in the overlay and log.
+     * 
+     * @return  text of the summary
+     */
+    private String getStatsSummary() {
+        return FRAME_STATS.summary() + System.lineSeparator() 
+                + LATENCY_STATS.summary() + System.lineSeparator() 
+                + SHEET_CACHE.summary() + System.lineSeparator() 
+                + SOUND_PLAYER.summary();
+    }
+    
     /**
      * Initializes all wav files into memory. Avoids reading wav files every
-     * call, reducing processing needed.
+     * call, reducing processing needed. Pitches the notes from one wav file
+     * or synthesizes them instead if asked to. Falls back to audio clips if
+     * the mixer cannot be opened.
      * 
-     * @see AudioClip
+     * @return  player of the notes
+     * @see MixerPlayer
      */
-    private void initSound() {
-        for (String s : SOUND_NOTES) {
-            AudioClip sound = new AudioClip(getClass().getResource(SOUND_DIR + s).toString());
-            SOUND_PLAYER.add(sound);
+    private NotePlayer initSound() {
+        URL[] noteUrls = new URL[SOUND_NOTES.length];
+        for (int i = 0; i < SOUND_NOTES.length; i++) {
+            noteUrls[i] = getClass().getResource(SOUND_DIR + SOUND_NOTES[i]);
+        }
+        
+        int[] noteKeys = new int[SOUND_NOTES.length];
+        for (int i = 0; i < SOUND_NOTES.length; i++) {
+            noteKeys[i] = MidiImporter.keyOf(SOUND_NOTES[i]);
+        }
+        
+        if (SOUND_BACKEND.equals("pitched")) {
+            URL referenceUrl = getClass().getResource(SOUND_DIR + SOUND_REFERENCE);
+            
+            try {
+                if (referenceUrl == null) {
+                    throw new IOException("No note " + SOUND_REFERENCE);
+                }
+                return MixerPlayer.openPitched(referenceUrl,
+                        MidiImporter.keyOf(SOUND_REFERENCE), noteKeys);
+            } catch (IOException | LineUnavailableException | IllegalArgumentException e) {
+                System.out.println("ERROR: Failed to open pitched notes, using audio clips!");
+            }
+        }
+        else if (SOUND_BACKEND.equals("synth")) {
+            try {
+                return MixerPlayer.openSynth(noteKeys);
+            } catch (LineUnavailableException | IllegalArgumentException e) {
+                System.out.println("ERROR: Failed to open synthesizer, using audio clips!");
+            }
+        }
+        else if (!SOUND_BACKEND.equals("clip")) {
+            try {
+                return MixerPlayer.open(noteUrls);
+            } catch (IOException | LineUnavailableException | IllegalArgumentException e) {
+                System.out.println("ERROR: Failed to open audio mixer, using audio clips!");
+            }
         }
+        
+        return new ClipPlayer(noteUrls);
     }
     
     /**
@@ -299,8 +592,8 @@ public class TapTiles extends Application {
      * @see Label
      */
     private void updateScoreInfo() {
-        SCORE_ACTIVE.setText(score.toString());
-        SCORE_HIGH.setText("Hiscore: " + hiScore.toString());
+        RENDERER.setScore(ENGINE.getScore());
+        SCORE_HIGH.setText("Hiscore: " + ENGINE.getHiScore());
     }
     
     /**
@@ -318,81 +611,79 @@ public class TapTiles extends Application {
     }
     
     /**
-     * Loads and parses sheet data.
+     * Loads and parses sheet data on SHEET_EXECUTOR, showing its progress in
+     * SOUND_STATUS. Cancels the load instead if one is running. The current
+     * sheet keeps playing until the new one is parsed.
      * 
-     * @param parent 
+     * @param parent    parent window of the file dialog
      */
     private void loadSheet(Stage parent) {
+        if (sheetTask != null && sheetTask.isRunning()) {
+            sheetTask.cancel();
+            return;
+        }
+        
         FileChooser dialog = new FileChooser();
-        sheetFile = dialog.showOpenDialog(parent);
+        File file = dialog.showOpenDialog(parent);
         
-        if (sheetFile != null) {
-            try {
-                /**
-                 * Workaround used to read a file in entirety including 
-                 * whitespace. Scanner was not used due to issues encountered 
-                 * by some which led to a maximum of only 1024 bytes read.
-                 * 
-                 * NOTE: Memory map was not used as it is probably overkill, 
-                 * which  means this block potentially could hog up the ram when 
-                 * reading extremely  large files.
-                */
-                byte[] data;
-                try (FileInputStream stream = new FileInputStream(sheetFile)) {
-                    data = new byte[(int) sheetFile.length()];
-                    stream.read(data);
-                }
-                // END BLOCK
-                
-                String sheet = new String(data, "UTF-8");
-                String[] notes = sheet.split(" ");
-                
-                SOUND_SHEET.clear();
-                
-                for (String s : notes) {
-                    Integer noteIndex = Integer.parseInt(s);
-                    
-                    if (noteIndex >= 0 && noteIndex < SOUND_NOTES.length) {
-                        SOUND_SHEET.add(noteIndex);
-                    }
-                    else {  // cancel parse when index is not within note count
-                        throw new IOException("Invalid index");
-                    }
-                }
-                
-                isSheetLoaded = true;
-                updateSheetInfo();
-            } catch (IOException | NumberFormatException e) { 
-                System.out.println("ERROR: Failed to parse sheet!");
-                
-                isSheetLoaded = false;
-                SOUND_SHEET.clear();
-                
-                updateSheetInfo();
-            }
+        if (file != null) {
+            startSheetLoad(file);
         }
     }
     
+    /**
+     * Starts loading a sheet file on SHEET_EXECUTOR, cancelling the load
+     * running, if any.
+     * 
+     * @param file  file containing the sheet
+     */
+    private void startSheetLoad(File file) {
+        if (sheetTask != null) {
+            sheetTask.cancel();
+        }
+        
+        sheetTask = new SheetTask(file);
+        
+        SOUND_STATUS.textProperty().bind(sheetTask.messageProperty());
+        LOAD_BUTTON.setText("Cancel");
+        
+        SHEET_EXECUTOR.execute(sheetTask);
+    }
+    
+    /**
+     * Restores the menu after a sheet load has ended.
+     */
+    private void endSheetLoad() {
+        SOUND_STATUS.textProperty().unbind();
+        LOAD_BUTTON.setText("Load");
+        sheetTask = null;
+    }
+    
     /**
      * Resets all values to default. Restarts the animation (game) after reset.
+     * A loaded timed sheet is played as it is timed, otherwise tiles are
+     * random.
      */
     private void restartAnim() {
-        for (Rectangle r : TILE_RECT) {
-            r.setX(0);
-            r.setY(-TILE_Y);
+        if (isSheetLoaded && soundSheet instanceof Timeline) {
+            ENGINE.setTimeline((Timeline) soundSheet);
+        }
+        else {
+            ENGINE.setTimeline(null);
         }
+        ENGINE.reset();
         
-        for (int i = 0; i < KEYS_GUIDE.size(); i++) {
-            KEYS_GUIDE.get(i).setFill(Color.LIGHTGRAY);
+        for (int i = 0; i < KEYS.length(); i++) {
+            RENDERER.setGuideFill(i, Color.LIGHTGRAY);
         }
         
-        score = 0;
-        isGameRunning = true;
         isKeyHighlighted = false;
         updateScoreInfo();
         
-        TILE_QUEUE.clear();
-        KEYS_ACTIVE.clear();
+        FRAME_STATS.reset();
+        LATENCY_STATS.reset();
+        
+        Arrays.fill(KEYS_ACTIVE, false);
         
         MENU_PANE.setVisible(false);
         
@@ -404,77 +695,122 @@ public class TapTiles extends Application {
      * Ends tile animation. Opens up menu and updates high score.
      */
     private void endAnim() {
-        isGameRunning = false;
+        ENGINE.end();
+        tileTimer.stop();
         
-        if (score > hiScore) {
-            hiScore = score;
-            updateScoreInfo();
+        updateScoreInfo();
+        redraw();
+        
+        if (STATS_LOG && FRAME_STATS.isEnabled()) {
+            System.out.println(getStatsSummary());
         }
         
         MENU_PANE.setVisible(true);
     }
     
+    /**
+     * Renders the playfield once, for changes made while no game is running
+     * and so no pulse draws them.
+     */
+    private void redraw() {
+        RENDERER.render(INTERPOLATE ? ENGINE.getAlpha() : 1.0);
+    }
+    
     /**
      * Verifies if the key is valid and corresponds to the foremost tile.
      * 
      * @param event KeyEvent object for the triggered event
      */
     private void verifyKeyPressed(KeyEvent event) {
-        String keyCode = event.getCode().toString();
+        long arrival = System.nanoTime();
+        int keyCode = event.getCode().ordinal();
 
         // accept KeyEvent only once from a key until key is released
-        if (!KEYS_ACTIVE.containsKey(keyCode)) {
-            KEYS_ACTIVE.put(keyCode, false);
+        if (!KEYS_ACTIVE[keyCode]) {
+            KEYS_ACTIVE[keyCode] = true;
 
-            if (TILE_QUEUE.peek() != null) {
-                Integer keyPos = KEYS.indexOf(keyCode);
+            int keyPos = KEYS_LANE[keyCode];
 
-                // key pressed should be valid and is not already pressed
-                if (keyPos != -1 && isGameRunning && !KEYS_ACTIVE.get(keyCode)) {
-                    KEYS_GUIDE.get(keyPos).setFill(Color.GRAY);
+            // key pressed should be valid and is not already pressed
+            if (keyPos != -1) {
+                GameEngine.Judgement judgement = ENGINE.press(keyPos);
 
-                    Integer[] tilePos = TILE_QUEUE.poll();
-                    
-                    if (Objects.equals(keyPos, tilePos[0])) {
-                        TILE_RECT.get(tilePos[1]).setY(-TILE_Y); 
-                        score++;
-                        updateScoreInfo();
-                    }
-                    else {
-                        endAnim();
+                KEYS_PRESSED_AT[keyPos] = 0;
+                if (judgement != GameEngine.Judgement.IGNORED) {
+                    KEYS_PRESSED_AT[keyPos] = arrival;
+                    LATENCY_STATS.recordJudgement(arrival, System.nanoTime());
+                    RENDERER.setGuideFill(keyPos, Color.GRAY);
+                }
+
+                if (judgement == GameEngine.Judgement.HIT) {
+                    if (SOUND_ON_PRESS) {
+                        playSheetNote(arrival, arrival);
                     }
+                    updateScoreInfo();
+                }
+                else if (judgement == GameEngine.Judgement.MISS) {
+                    endAnim();
                 }
             }
         }
     }
     
     private void verifyKeyReleased(KeyEvent event) {
-        String keyCode = event.getCode().toString();
-        Integer keyPos = KEYS.indexOf(keyCode);
+        long arrival = System.nanoTime();
+        int keyCode = event.getCode().ordinal();
+        int keyPos = KEYS_LANE[keyCode];
 
-        KEYS_ACTIVE.remove(keyCode);
+        KEYS_ACTIVE[keyCode] = false;
 
         // accepts only valid presses
         if (keyPos != -1) {
             if (!isKeyHighlighted) {
-                if (isGameRunning) {
-                    KEYS_GUIDE.get(keyPos).setFill(Color.LIGHTGRAY);
+                if (ENGINE.isRunning()) {
+                    RENDERER.setGuideFill(keyPos, Color.LIGHTGRAY);
                 }
-                else if (!isGameRunning){
-                    KEYS_GUIDE.get(keyPos).setFill(Color.RED);
+                else {
+                    RENDERER.setGuideFill(keyPos, Color.RED);
                     isKeyHighlighted = true;
+                    redraw();
                 }
 
-                if (isSheetLoaded) {
-                    Integer sheetIndex = (score - 1) % SOUND_SHEET.size();
-                    Integer wavIndex = SOUND_SHEET.get(sheetIndex);
-
-                    SOUND_PLAYER.get(wavIndex - 1).play();
+                // a press that was not judged plays nothing and is not timed
+                if (!SOUND_ON_PRESS && KEYS_PRESSED_AT[keyPos] != 0) {
+                    playSheetNote(KEYS_PRESSED_AT[keyPos], arrival);
                 }
             }
         }
     }
     
+    /**
+     * Plays the note of the sheet for the latest tile hit, if a sheet is
+     * loaded and a tile has been hit. Tiles of a timeline play every note of
+     * their chord.
+     * 
+     * @param pressNanos    arrival of the KeyEvent of the press
+     * @param eventNanos    arrival of the KeyEvent playing the note
+     */
+    private void playSheetNote(long pressNanos, long eventNanos) {
+        Timeline timeline = ENGINE.getTimeline();
+        
+        if (timeline != null && ENGINE.getHitEvent() >= 0) {
+            int event = ENGINE.getHitEvent();
+            
+            for (int n = 0; n < timeline.getChordSize(event); n++) {
+                SOUND_PLAYER.play(timeline.getChordNote(event, n));
+            }
+            
+            LATENCY_STATS.recordSound(pressNanos, eventNanos, System.nanoTime());
+        }
+        else if (isSheetLoaded && ENGINE.getScore() > 0) {
+            int wavIndex = soundSheet.getNote(ENGINE.getScore() - 1);
+
+            SOUND_PLAYER.play(wavIndex);
+            
+            LATENCY_STATS.recordSound(pressNanos, eventNanos, System.nanoTime());
+        }
+    }
+    
     /**
      * Creates the UI for the game.
      * 
@@ -483,39 +819,36 @@ public class TapTiles extends Application {
      */
     @Override
     public void start(Stage stage) throws Exception {
-        HBox pnScore = new HBox();  // container for score-related objects
-        pnScore.setAlignment(Pos.CENTER);
-        pnScore.setPrefWidth(WIN_X);
-        pnScore.setPrefHeight(100);
-        pnScore.getChildren().add(SCORE_ACTIVE);
-        
-        HBox pnGuide = new HBox();  // container for key guide objects
-        pnGuide.setAlignment(Pos.BOTTOM_LEFT);
-        pnGuide.setPrefWidth(WIN_X);
-        pnGuide.setPrefHeight(WIN_Y);
-        for (int i = 0; i < TILE_COUNT; i++) {
-            pnGuide.getChildren().add(createGuideTile(KEYS.charAt(i), i));
-        }
+        long startStart = System.nanoTime();
         
         Pane pnMain = new Pane();   // container for all objects
-        pnMain.getChildren().add(pnGuide);
-        pnMain.getChildren().addAll(TILE_RECT);
-        pnMain.getChildren().add(pnScore);
+        pnMain.getChildren().add(RENDERER.getView());
+        pnMain.getChildren().add(STATS_OVERLAY);
         pnMain.getChildren().add(createMenuPane(stage));
+        pnMain.getChildren().add(createLibraryPane(stage));
+        
+        RENDERER.render(1.0);
         
         Scene scene = new Scene(pnMain, WIN_X, WIN_Y);
         scene.setOnKeyPressed(event -> {
-            verifyKeyPressed(event);
+            if (event.getCode() == STATS_KEY) {
+                setStatsEnabled(!FRAME_STATS.isEnabled());
+            }
+            else {
+                verifyKeyPressed(event);
+            }
         });
         scene.setOnKeyReleased(event -> {
             verifyKeyReleased(event);
         });
+        long cssStart = System.nanoTime();
         try {
             scene.getStylesheets().addAll(
                     getClass().getResource("TapTiles.css").toExternalForm());
         } catch (NullPointerException e) {  // still runs program if no css found
             System.out.println("ERROR: Stylesheet not found!");
         }
+        STARTUP.record("css", cssStart);
         
         /**
          * Offsets window size if running in Java 8 or below. Due to empty space
@@ -530,77 +863,152 @@ public class TapTiles extends Application {
         stage.setScene(scene);
         stage.setResizable(false);
         stage.setTitle("Tap Tiles (JavaFX Version)");
+        
+        long showStart = System.nanoTime();
         stage.show();
+        STARTUP.record("show", showStart);
+        STARTUP.record("start", startStart);
+        
+        // printed once the notes are loaded too, which may be before the show
+        SOUND_LOADING.whenComplete((result, error) -> System.out.println(STARTUP.summary()));
     }
     
     /**
-     * Animates the tile to move downward.
+     * Releases the audio device when the window is closed.
      */
-    private class TileTimer extends AnimationTimer {
-        private final Random RANDOM = new Random();
+    @Override
+    public void stop() {
+        SOUND_PLAYER.close();
+    }
+    
+    /**
+     * Loads a sheet on a background thread. The parsed sheet is swapped into
+     * the game on the UI thread, the only thread playing notes, so a note is
+     * always played from either the old or the new sheet.
+     */
+    private class SheetTask extends Task<Sheet> {
+        private final File FILE;
+        private BitSet notes;               // notes of the sheet, if known
         
-        private Integer newTile = 0;
-        private Integer speed = 0;
+        /**
+         * Creates the load of a sheet file.
+         * 
+         * @param file  file containing the sheet
+         */
+        public SheetTask(File file) {
+            FILE = file;
+            updateMessage("Loading " + FILE.getName());
+        }
         
-        public TileTimer() {
-            generateRandomTile();
-            speed = 0;
+        @Override
+        protected Sheet call() throws IOException {
+            File file = FILE;
+            if (MidiImporter.isMidi(FILE)) {
+                updateMessage("Importing " + FILE.getName());
+                file = MIDI_IMPORTER.importFile(FILE, MIDI_TRACK, MIDI_TIMED);
+            }
+            
+            Sheet sheet = SHEET_CACHE.load(file, SOUND_NOTES.length, (bytesRead, totalBytes) -> {
+                updateProgress(bytesRead, totalBytes);
+                updateMessage(String.format(Locale.ROOT, "Loading %s (%d%%)", 
+                        FILE.getName(), bytesRead * 100 / Math.max(totalBytes, 1)));
+            });
+            
+            if (sheet instanceof Timeline && ((Timeline) sheet).getLaneCount() > LANE_COUNT) {
+                throw new IOException("Sheet uses more than " + LANE_COUNT + " lanes");
+            }
+            
+            notes = sheet.getNoteSet();
+            return sheet;
         }
         
-        /**
-         * Changes the speed of the tile according to the score.
-         */
-        private void adjustSpeed() {
-            for (int i = 0; i < SPEED_LEVEL.length - 1; i++) {
-                if (score >= SPEED_LEVEL[i] && score < SPEED_LEVEL[i + 1]) {
-                    speed = i + 1;
+        @Override
+        protected void succeeded() {
+            endSheetLoad();
+            
+            soundSheet = getValue();
+            sheetFile = FILE;
+            isSheetLoaded = true;
+            
+            // only decodes the notes the sheet plays, all of them if unknown
+            CompletableFuture<Void> loading = notes != null
+                    ? SOUND_PLAYER.preload(notes) : SOUND_PLAYER.loadAll();
+            loading.whenComplete((result, error) -> {
+                if (error != null) {
+                    System.out.println("ERROR: Failed to load notes of " + FILE.getName() + "!");
                 }
-            }
+            });
+            
+            updateSheetInfo();
         }
         
-        /**
-         * Designates the next tile to move if current moving tile is already
-         * fully out.
-         */
-        private void generateRandomTile() {
-            Integer nextTile = (newTile + 1) % TILE_COUNT;
+        @Override
+        protected void failed() {
+            System.out.println("ERROR: Failed to parse sheet!");
+            endSheetLoad();
             
-            if (TILE_RECT.get(nextTile).getY() <= -TILE_Y) {
-                newTile = nextTile;
-                Integer[] pos = {RANDOM.nextInt(TILE_COUNT), newTile};
-                
-                TILE_RECT.get(newTile).setX(pos[0] * TILE_X);
+            isSheetLoaded = false;
+            soundSheet = null;
+            
+            updateSheetInfo();
+            
+            // lists every invalid note, so they can all be fixed at once
+            if (getException() instanceof SheetFormatException) {
+                List<SheetError> errors = ((SheetFormatException) getException()).getErrors();
                 
-                TILE_QUEUE.add(pos);
-                adjustSpeed();
+                SheetLoader.printErrors(errors);
+                SOUND_STATUS.setText(errors.size() + " invalid notes in " + FILE.getName());
             }
         }
         
+        @Override
+        protected void cancelled() {
+            endSheetLoad();
+            updateSheetInfo();
+        }
+    }
+    
+    /**
+     * Animates the tile to move downward. Forwards the time elapsed between
+     * pulses to the engine, which simulates the tiles in fixed steps, then
+     * draws the tiles at their new positions. Records the duration of each
+     * pulse in FRAME_STATS.
+     */
+    private class TileTimer extends AnimationTimer {
+        private long lastPulse = -1;    // timestamp of the previous pulse
+        private long lastOverlay = 0;   // timestamp of the last overlay update
+        
         /**
-         * Moves the tile downwards.
+         * Advances the engine by the time elapsed since the last pulse, then
+         * moves the tiles downwards.
          * 
-         * @param l 
+         * @param now   timestamp of the current pulse in nanoseconds
          */
         @Override
-        public void handle(long l) {
-            for(int i = 0; i < TILE_COUNT; i++) {
-                // ends game if tile is no longer visible from bottom
-                if (!isGameRunning || TILE_RECT.get(i).getY() >= WIN_Y) {
-                    endAnim();
-                    stop();
-                }
-                // moves tile if already moving or is next tile to move
-                else if (TILE_RECT.get(i).getY() > -TILE_Y || i == newTile) {
-                    if (i == newTile) {
-                        // designates next tile to move if none is or is already moving
-                        if (TILE_RECT.get(i).getY() >= 0 || TILE_QUEUE.peek() == null) {
-                            generateRandomTile();
-                            continue;
-                        }
-                    }
-                    
-                    TILE_RECT.get(i).setY(TILE_RECT.get(i).getY() + SPEED_MOVE[speed]);
-                }
+        public void handle(long now) {
+            long start = System.nanoTime();
+            
+            if (lastPulse < 0) {    // first pulse only establishes the clock
+                lastPulse = now;
+            }
+            
+            long elapsed = now - lastPulse;
+            lastPulse = now;
+            
+            if (!ENGINE.advance(elapsed)) {
+                endAnim();
+                return;
+            }
+            
+            RENDERER.render(INTERPOLATE ? ENGINE.getAlpha() : 1.0);
+            
+            FRAME_STATS.record(elapsed, System.nanoTime() - start,
+                    ENGINE.getTileCount(), ENGINE.getQueueSize());
+            
+            // text is only rebuilt a few times per second to limit garbage
+            if (FRAME_STATS.isEnabled() && now - lastOverlay >= STATS_INTERVAL) {
+                STATS_OVERLAY.setText(getStatsSummary());
+                lastOverlay = now;
             }
         }
     }
@@ -0,0 +1,163 @@
+package com.taptiles;
+
+
+/**
+ * First-in first-out queue of tiles waiting to be hit. Lanes and tile indexes
+ * are kept in parallel int arrays used as a ring buffer, so adding and
+ * removing tiles does not allocate. The arrays only grow when the queue is
+ * full, which stops once the tile pool has reached its largest size.
+ */
+
+
+public class TileQueue {
+    private int[] lanes;            // lane of each queued tile
+    private int[] tiles;            // tile index of each queued tile
+
+    private int head;               // array index of the frontmost tile
+    private int size;               // number of queued tiles
+
+    /**
+     * Creates an empty queue.
+     *
+     * @param capacity  number of tiles that can be queued before growing
+     */
+    public TileQueue(int capacity) {
+        lanes = new int[Math.max(capacity, 1)];
+        tiles = new int[Math.max(capacity, 1)];
+    }
+
+    /**
+     * Doubles the capacity of the queue, moving the frontmost tile to the
+     * start of the arrays.
+     */
+    private void grow() {
+        int[] newLanes = new int[lanes.length * 2];
+        int[] newTiles = new int[tiles.length * 2];
+
+        for (int i = 0; i < size; i++) {
+            newLanes[i] = getLane(i);
+            newTiles[i] = getTile(i);
+        }
+
+        lanes = newLanes;
+        tiles = newTiles;
+        head = 0;
+    }
+
+    /**
+     * Adds a tile to the back of the queue.
+     *
+     * @param lane      lane of the tile
+     * @param tileIndex index of the tile
+     */
+    public void add(int lane, int tileIndex) {
+        if (size == lanes.length) {
+            grow();
+        }
+
+        int tail = (head + size) % lanes.length;
+        lanes[tail] = lane;
+        tiles[tail] = tileIndex;
+        size++;
+    }
+
+    /**
+     * Removes the frontmost tile. Its lane and index should be read with
+     * peekLane and peekTile beforehand.
+     *
+     * @throws IllegalStateException    if the queue is empty
+     */
+    public void remove() {
+        if (size == 0) {
+            throw new IllegalStateException("Tile queue is empty");
+        }
+
+        head = (head + 1) % lanes.length;
+        size--;
+    }
+
+    /**
+     * Removes a tile anywhere in the queue, moving the tiles behind it
+     * forward.
+     *
+     * @param position  position in the queue, 0 being the frontmost tile
+     * @throws IndexOutOfBoundsException    if no tile is at the position
+     */
+    public void remove(int position) {
+        if (position < 0 || position >= size) {
+            throw new IndexOutOfBoundsException("No tile at " + position);
+        }
+
+        for (int i = position; i < size - 1; i++) {
+            lanes[(head + i) % lanes.length] = lanes[(head + i + 1) % lanes.length];
+            tiles[(head + i) % tiles.length] = tiles[(head + i + 1) % tiles.length];
+        }
+        size--;
+    }
+
+    /**
+     * Returns the position of a tile in the queue.
+     *
+     * @param tileIndex index of the tile
+     * @return          position in the queue, or -1 if it is not queued
+     */
+    public int indexOf(int tileIndex) {
+        for (int i = 0; i < size; i++) {
+            if (getTile(i) == tileIndex) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the lane of the frontmost tile.
+     *
+     * @return  lane of the tile, or -1 if the queue is empty
+     */
+    public int peekLane() {
+        return size > 0 ? lanes[head] : -1;
+    }
+
+    /**
+     * Returns the index of the frontmost tile.
+     *
+     * @return  index of the tile, or -1 if the queue is empty
+     */
+    public int peekTile() {
+        return size > 0 ? tiles[head] : -1;
+    }
+
+    /**
+     * Returns the lane of a queued tile.
+     *
+     * @param position  position in the queue, 0 being the frontmost tile
+     * @return          lane of the tile
+     */
+    public int getLane(int position) {
+        return lanes[(head + position) % lanes.length];
+    }
+
+    /**
+     * Returns the index of a queued tile.
+     *
+     * @param position  position in the queue, 0 being the frontmost tile
+     * @return          index of the tile
+     */
+    public int getTile(int position) {
+        return tiles[(head + position) % tiles.length];
+    }
+
+    public void clear() {
+        head = 0;
+        size = 0;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int size() {
+        return size;
+    }
+}
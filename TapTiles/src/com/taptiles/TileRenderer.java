@@ -0,0 +1,48 @@
+package com.taptiles;
+
+
+/**
+ * Draws the playfield of a GameEngine: the tiles, the key guides along the
+ * bottom and the score. Implementations only read the engine, so the
+ * backend can be swapped without changing the game.
+ *
+ * @see NodeRenderer CanvasRenderer
+ */
+
+
+import javafx.scene.Node;
+import javafx.scene.paint.Paint;
+
+
+public interface TileRenderer {
+    /**
+     * Returns the node containing the drawn playfield. Always returns the
+     * same node.
+     *
+     * @return  node to add to the scene
+     */
+    Node getView();
+
+    /**
+     * Draws the current state of the engine.
+     *
+     * @param alpha fraction of a step elapsed since the last step
+     */
+    void render(double alpha);
+
+    /**
+     * Changes the color of the key guide of a lane. It may only show once the
+     * playfield is rendered again.
+     *
+     * @param lane  lane of the key guide
+     * @param fill  new color of the key guide
+     */
+    void setGuideFill(int lane, Paint fill);
+
+    /**
+     * Changes the displayed score.
+     *
+     * @param score score to display
+     */
+    void setScore(int score);
+}
@@ -0,0 +1,474 @@
+package com.taptiles;
+
+
+/**
+ * Timed sheet, compiled into parallel arrays of events sorted by time. Each
+ * event is a tile with a start time, a duration, a lane and a chord of one or
+ * more notes played when the tile is hit. Timed sheets are text files whose
+ * first line is "timed", followed by lines of
+ *
+ *   time duration lane note[+note...]
+ *
+ * with times and durations in milliseconds, lanes from 1 and notes being
+ * indexes of the wav files in SOUND_NOTES. A "speed" line sets how fast tiles
+ * scroll in pixels per second, which turns durations into tile heights. Text
+ * after '#' is a comment.
+ *
+ * As a Sheet, the note at a position is the first note of the chord of that
+ * event, since tiles are hit in the order of their events.
+ */
+
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.zip.CRC32;
+
+
+public class Timeline implements Sheet {
+    public static final int DEFAULT_SPEED = 300;    // pixels per second
+
+    private static final byte[] MAGIC = "timed".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] BOM = { (byte) 0xEF, (byte) 0xBB, (byte) 0xBF };
+
+    private final int[] TIMES;          // start of each event in ms
+    private final int[] DURATIONS;      // duration of each event in ms
+    private final int[] LANES;          // lane of each event, from 0
+    private final int[] CHORDS;         // offset of the notes of each event
+    private final int[] NOTES;          // notes of all chords in order
+    private final int SPEED;            // scroll speed in pixels per second
+    private final int LANE_COUNT;       // highest lane used, plus one
+
+    private Timeline(int[] times, int[] durations, int[] lanes, int[] chords,
+            int[] notes, int speed) {
+        TIMES = times;
+        DURATIONS = durations;
+        LANES = lanes;
+        CHORDS = chords;
+        NOTES = notes;
+        SPEED = speed;
+
+        int laneCount = 0;
+        for (int lane : lanes) {
+            laneCount = Math.max(laneCount, lane + 1);
+        }
+        LANE_COUNT = laneCount;
+    }
+
+    /**
+     * Checks whether a file is a timed sheet rather than a list of notes.
+     * Like parse, a UTF-8 byte order mark, blank lines and comments before
+     * the header are skipped.
+     *
+     * @param sheetFile file containing a sheet
+     * @return          true if the first token of the file is "timed"
+     * @throws IOException  if the file cannot be read
+     */
+    public static boolean isTimed(File sheetFile) throws IOException {
+        try (InputStream in = new BufferedInputStream(
+                Files.newInputStream(sheetFile.toPath()))) {
+            int b = in.read();
+
+            if (b == (BOM[0] & 0xFF)) {
+                if (in.read() != (BOM[1] & 0xFF) || in.read() != (BOM[2] & 0xFF)) {
+                    return false;
+                }
+                b = in.read();
+            }
+
+            // skips blank lines and comments up to the first token
+            while (b != -1 && (isSpace((byte) b) || b == '#')) {
+                if (b == '#') {
+                    while (b != -1 && b != '\n') {
+                        b = in.read();
+                    }
+                }
+                else {
+                    b = in.read();
+                }
+            }
+
+            for (byte expected : MAGIC) {
+                if (b != expected) {
+                    return false;
+                }
+                b = in.read();
+            }
+            return b == -1 || b == '#' || isSpace((byte) b);
+        }
+    }
+
+    /**
+     * Reads and compiles a timed sheet file.
+     *
+     * @param sheetFile file containing the timed sheet
+     * @param noteCount number of available notes, indexes must be from 1 to
+     *                  noteCount
+     * @return          compiled timeline
+     * @throws IOException  if the file cannot be read, SheetFormatException
+     *                      listing every invalid line
+     */
+    public static Timeline read(File sheetFile, int noteCount) throws IOException {
+        return read(sheetFile, noteCount, null);
+    }
+
+    /**
+     * Reads and compiles a timed sheet file, hashing its contents in the same
+     * read.
+     *
+     * @param sheetFile file containing the timed sheet
+     * @param noteCount number of available notes, indexes must be from 1 to
+     *                  noteCount
+     * @param crc       updated with the contents of the file, or null
+     * @return          compiled timeline
+     * @throws IOException  if the file cannot be read, SheetFormatException
+     *                      listing every invalid line
+     */
+    public static Timeline read(File sheetFile, int noteCount, CRC32 crc) throws IOException {
+        byte[] data = Files.readAllBytes(sheetFile.toPath());
+        if (crc != null) {
+            crc.update(data, 0, data.length);
+        }
+        return parse(data, noteCount);
+    }
+
+    /**
+     * Compiles the contents of a timed sheet. All lines are checked before
+     * failing, so every error is reported at once.
+     *
+     * @param data      raw contents of the timed sheet
+     * @param noteCount number of available notes, indexes must be from 1 to
+     *                  noteCount
+     * @return          compiled timeline
+     * @throws IOException  SheetFormatException listing every invalid line,
+     *                      or if there are no events
+     */
+    public static Timeline parse(byte[] data, int noteCount) throws IOException {
+        List<SheetError> errors = new ArrayList<>();
+        int speed = DEFAULT_SPEED;
+        boolean hasMagic = false;
+
+        int count = 0;
+        int[] times = new int[64];
+        int[] durations = new int[64];
+        int[] lanes = new int[64];
+        int[] chords = new int[65];
+        int[] notes = new int[64];
+        int noteTotal = 0;
+
+        int[] starts = new int[5];      // tokens of the current line
+        int[] ends = new int[5];
+        int lineNumber = 0;
+        int lineStart = hasBom(data) ? BOM.length : 0;
+
+        while (lineStart < data.length) {
+            int lineEnd = lineStart;
+            while (lineEnd < data.length && data[lineEnd] != '\n') {
+                lineEnd++;
+            }
+            lineNumber++;
+
+            // splits the line into tokens, ignoring comments
+            int tokenCount = 0;
+            int i = lineStart;
+            while (i < lineEnd && data[i] != '#') {
+                if (isSpace(data[i])) {
+                    i++;
+                    continue;
+                }
+
+                int start = i;
+                while (i < lineEnd && !isSpace(data[i]) && data[i] != '#') {
+                    i++;
+                }
+                if (tokenCount < starts.length) {
+                    starts[tokenCount] = start;
+                    ends[tokenCount] = i;
+                }
+                tokenCount++;
+            }
+
+            if (tokenCount == 0) {
+                lineStart = lineEnd + 1;
+                continue;
+            }
+            int lineTokenEnd = ends[Math.min(tokenCount, ends.length) - 1];
+
+            if (!hasMagic) {
+                if (!isWord(data, starts[0], ends[0], "timed") || tokenCount != 1) {
+                    errors.add(error(data, starts[0], lineTokenEnd, lineNumber, lineStart,
+                            "is not the \"timed\" header"));
+                }
+                hasMagic = true;
+            }
+            else if (isWord(data, starts[0], ends[0], "speed")) {
+                int value = tokenCount == 2 ? parseInt(data, starts[1], ends[1]) : -1;
+
+                if (value < 1) {
+                    errors.add(error(data, starts[0], lineTokenEnd, lineNumber, lineStart,
+                            "is not a speed in pixels per second"));
+                }
+                else {
+                    speed = value;
+                }
+            }
+            else if (tokenCount != 4) {
+                errors.add(error(data, starts[0], lineTokenEnd, lineNumber, lineStart,
+                        "is not an event of time, duration, lane and notes"));
+            }
+            else {
+                int time = parseInt(data, starts[0], ends[0]);
+                int duration = parseInt(data, starts[1], ends[1]);
+                int lane = parseInt(data, starts[2], ends[2]);
+                int errorCount = errors.size();
+
+                if (time < 0) {
+                    errors.add(error(data, starts[0], ends[0], lineNumber, lineStart,
+                            "is not a time in milliseconds"));
+                }
+                if (duration < 1) {
+                    errors.add(error(data, starts[1], ends[1], lineNumber, lineStart,
+                            "is not a duration in milliseconds"));
+                }
+                if (lane < 1) {
+                    errors.add(error(data, starts[2], ends[2], lineNumber, lineStart,
+                            "is not a lane"));
+                }
+
+                // chords are notes joined by '+'
+                int chordStart = noteTotal;
+                int noteStart = starts[3];
+                for (int j = starts[3]; j <= ends[3]; j++) {
+                    if (j < ends[3] && data[j] != '+') {
+                        continue;
+                    }
+
+                    int note = parseInt(data, noteStart, j);
+                    if (note < 1 || note > noteCount) {
+                        errors.add(error(data, noteStart, j, lineNumber, lineStart,
+                                note < 0 ? SheetError.NOT_A_NUMBER
+                                        : SheetError.outOfRange(noteCount)));
+                    }
+                    else {
+                        if (noteTotal == notes.length) {
+                            notes = Arrays.copyOf(notes, noteTotal * 2);
+                        }
+                        notes[noteTotal++] = note;
+                    }
+                    noteStart = j + 1;
+                }
+
+                if (errors.size() == errorCount) {
+                    if (count == times.length) {
+                        times = Arrays.copyOf(times, count * 2);
+                        durations = Arrays.copyOf(durations, count * 2);
+                        lanes = Arrays.copyOf(lanes, count * 2);
+                        chords = Arrays.copyOf(chords, count * 2 + 1);
+                    }
+
+                    times[count] = time;
+                    durations[count] = duration;
+                    lanes[count] = lane - 1;
+                    chords[count] = chordStart;
+                    count++;
+                }
+                else {
+                    noteTotal = chordStart;
+                }
+            }
+
+            lineStart = lineEnd + 1;
+        }
+
+        if (!errors.isEmpty()) {
+            throw new SheetFormatException(errors);
+        }
+        else if (count == 0) {
+            throw new IOException("Sheet has no events");
+        }
+        chords[count] = noteTotal;
+
+        return sort(count, times, durations, lanes, chords, notes, speed);
+    }
+
+    /**
+     * Sorts parsed events by time, keeping events with the same time in the
+     * order they were written.
+     *
+     * @return  timeline of the sorted events
+     */
+    private static Timeline sort(int count, int[] times, int[] durations,
+            int[] lanes, int[] chords, int[] notes, int speed) {
+        long[] keys = new long[count];
+        for (int i = 0; i < count; i++) {
+            keys[i] = (long) times[i] << 32 | i;
+        }
+        Arrays.sort(keys);
+
+        int[] sortedTimes = new int[count];
+        int[] sortedDurations = new int[count];
+        int[] sortedLanes = new int[count];
+        int[] sortedChords = new int[count + 1];
+        int[] sortedNotes = new int[chords[count]];
+        int noteTotal = 0;
+
+        for (int n = 0; n < count; n++) {
+            int i = (int) keys[n];
+
+            sortedTimes[n] = times[i];
+            sortedDurations[n] = durations[i];
+            sortedLanes[n] = lanes[i];
+            sortedChords[n] = noteTotal;
+
+            for (int j = chords[i]; j < chords[i + 1]; j++) {
+                sortedNotes[noteTotal++] = notes[j];
+            }
+        }
+        sortedChords[count] = noteTotal;
+
+        return new Timeline(sortedTimes, sortedDurations, sortedLanes,
+                sortedChords, sortedNotes, speed);
+    }
+
+    /**
+     * Creates the error of a token or the rest of a line.
+     */
+    private static SheetError error(byte[] data, int start, int end,
+            int line, int lineStart, String reason) {
+        return new SheetError(start, line, start - lineStart + 1,
+                SheetError.tokenText(data, start, end - start), reason);
+    }
+
+    /**
+     * Parses a non-negative decimal number.
+     *
+     * @return  the number, or -1 if it is not one or too large
+     */
+    private static int parseInt(byte[] data, int start, int end) {
+        if (start == end || end - start > 9) {
+            return -1;
+        }
+
+        int value = 0;
+        for (int i = start; i < end; i++) {
+            if (data[i] < '0' || data[i] > '9') {
+                return -1;
+            }
+            value = value * 10 + (data[i] - '0');
+        }
+        return value;
+    }
+
+    private static boolean isWord(byte[] data, int start, int end, String word) {
+        if (end - start != word.length()) {
+            return false;
+        }
+        for (int i = 0; i < word.length(); i++) {
+            if (data[start + i] != word.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isSpace(byte b) {
+        return b == ' ' || b == '\n' || b == '\r' || b == '\t';
+    }
+
+    private static boolean hasBom(byte[] data) {
+        return data.length >= BOM.length && data[0] == BOM[0] && data[1] == BOM[1]
+                && data[2] == BOM[2];
+    }
+
+    @Override
+    public int getNote(int position) {
+        return NOTES[CHORDS[position % TIMES.length]];
+    }
+
+    /**
+     * Returns the number of events, each being one tile.
+     *
+     * @return  number of events
+     */
+    @Override
+    public int size() {
+        return TIMES.length;
+    }
+
+    public int getTime(int event) {
+        return TIMES[event];
+    }
+
+    public int getDuration(int event) {
+        return DURATIONS[event];
+    }
+
+    public int getLane(int event) {
+        return LANES[event];
+    }
+
+    /**
+     * Returns the number of notes played together by an event.
+     *
+     * @param event index of the event
+     * @return      number of notes in its chord, at least one
+     */
+    public int getChordSize(int event) {
+        return CHORDS[event + 1] - CHORDS[event];
+    }
+
+    /**
+     * Returns a note of the chord of an event.
+     *
+     * @param event index of the event
+     * @param n     index of the note within the chord
+     * @return      index of the wav file of the note
+     */
+    public int getChordNote(int event, int n) {
+        return NOTES[CHORDS[event] + n];
+    }
+
+    /**
+     * Returns the distinct notes of every chord, not only the first notes.
+     *
+     * @return  set of the indexes of the notes used
+     */
+    @Override
+    public BitSet getNoteSet() {
+        BitSet notes = new BitSet();
+        for (int note : NOTES) {
+            notes.set(note);
+        }
+        return notes;
+    }
+
+    public int getSpeed() {
+        return SPEED;
+    }
+
+    /**
+     * Returns the number of lanes needed to play the timeline.
+     *
+     * @return  highest lane used, counting from 1
+     */
+    public int getLaneCount() {
+        return LANE_COUNT;
+    }
+
+    /**
+     * Returns the memory used by the events and chords of the timeline.
+     *
+     * @return  size in bytes
+     */
+    public long getFootprint() {
+        return 4L * (TIMES.length + DURATIONS.length + LANES.length + CHORDS.length
+                + NOTES.length);
+    }
+}
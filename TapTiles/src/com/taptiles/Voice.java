@@ -0,0 +1,28 @@
+package com.taptiles;
+
+
+/**
+ * Source of the sound of one note at a time in AudioMixer. Voices are
+ * allocated once for the pool of the mixer and reused for every note, so
+ * neither starting nor mixing a note may allocate.
+ */
+
+
+public abstract class Voice {
+    /**
+     * Starts a note from its beginning, replacing the note playing, if any.
+     *
+     * @param note  index of the note, from 1
+     */
+    public abstract void start(int note);
+
+    /**
+     * Adds the next frames of the note to a mix.
+     *
+     * @param mix       interleaved samples in the format of the mixer, as
+     *                  ints so that voices can be summed without clipping
+     * @param frames    number of frames to add
+     * @return          false once the note has ended
+     */
+    public abstract boolean mix(int[] mix, int frames);
+}
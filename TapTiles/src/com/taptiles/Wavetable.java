@@ -0,0 +1,147 @@
+package com.taptiles;
+
+
+/**
+ * Single cycles of a synthesized piano tone, shared by every SynthVoice. The
+ * tone is the sum of the harmonics of a string struck at a seventh of its
+ * length, each harmonic weaker than the last. One cycle is computed for
+ * each octave of the 88 keys of a piano, with only the harmonics below half
+ * the sample rate, so high notes do not alias.
+ *
+ * The tables are computed once and take a fixed 64 KB or so, whatever the
+ * number of notes played, with no file to read.
+ */
+
+
+import javax.sound.sampled.AudioFormat;
+
+
+public class Wavetable {
+    public static final int LOW_KEY = 21;           // A0, lowest key of a piano
+    public static final int HIGH_KEY = 108;         // C8, highest key of a piano
+
+    private static final int SIZE = 2048;           // samples per cycle, a power of 2
+    private static final int MAX_HARMONICS = 32;
+    private static final double STRIKE_POINT = 1.0 / 7;    // along the string
+    private static final double ROLLOFF = 1.2;      // power of the harmonic number
+
+    private final AudioFormat FORMAT;   // format of the mixer
+    private final float[][] CYCLES;     // one cycle of each octave, peak of 1
+    private final double[] STEPS;       // samples of a cycle per frame of each key
+
+    /**
+     * Computes the cycles for a sample rate.
+     *
+     * @param format    format of the mixer playing the tone
+     */
+    public Wavetable(AudioFormat format) {
+        FORMAT = format;
+        float rate = format.getSampleRate();
+
+        CYCLES = new float[(HIGH_KEY - LOW_KEY) / 12 + 1][SIZE];
+        for (int octave = 0; octave < CYCLES.length; octave++) {
+            int highest = Math.min(LOW_KEY + octave * 12 + 11, HIGH_KEY);
+            int harmonics = (int) Math.min(MAX_HARMONICS, rate / 2 / frequencyOf(highest));
+
+            computeCycle(CYCLES[octave], Math.max(harmonics, 1));
+        }
+
+        STEPS = new double[HIGH_KEY + 1];
+        for (int key = LOW_KEY; key <= HIGH_KEY; key++) {
+            STEPS[key] = frequencyOf(key) * SIZE / rate;
+        }
+    }
+
+    /**
+     * Returns the frequency of a key in equal temperament.
+     *
+     * @param key   MIDI key, A4 being 69
+     * @return      frequency in Hz, A4 being 440 Hz
+     */
+    public static double frequencyOf(int key) {
+        return 440 * Math.pow(2, (key - 69) / 12.0);
+    }
+
+    /**
+     * Sums harmonics into a cycle and scales it to a peak of 1.
+     */
+    private static void computeCycle(float[] cycle, int harmonics) {
+        double[] sum = new double[cycle.length];
+        double peak = 0;
+
+        for (int i = 0; i < sum.length; i++) {
+            double phase = 2 * Math.PI * i / sum.length;
+
+            for (int n = 1; n <= harmonics; n++) {
+                double amplitude = Math.abs(Math.sin(Math.PI * n * STRIKE_POINT))
+                        / Math.pow(n, ROLLOFF);
+                sum[i] += amplitude * Math.sin(n * phase);
+            }
+            peak = Math.max(peak, Math.abs(sum[i]));
+        }
+
+        for (int i = 0; i < cycle.length; i++) {
+            cycle[i] = (float) (sum[i] / peak);
+        }
+    }
+
+    /**
+     * Checks whether a key can be played.
+     *
+     * @param key   MIDI key
+     * @return      true if the key is on a piano
+     */
+    public static boolean hasKey(int key) {
+        return key >= LOW_KEY && key <= HIGH_KEY;
+    }
+
+    /**
+     * Returns the sample of a key at a position in its cycle, interpolated
+     * linearly between the samples of the table.
+     *
+     * @param key       MIDI key, see hasKey
+     * @param phase     position in the cycle, from 0 to the size of a cycle
+     * @return          sample from -1 to 1
+     */
+    public float getSample(int key, double phase) {
+        float[] cycle = CYCLES[(key - LOW_KEY) / 12];
+        int from = (int) phase;
+        float fraction = (float) (phase - from);
+
+        float first = cycle[from & (SIZE - 1)];
+        float second = cycle[(from + 1) & (SIZE - 1)];
+        return first + (second - first) * fraction;
+    }
+
+    /**
+     * Returns how far the phase of a key moves per frame.
+     *
+     * @param key   MIDI key, see hasKey
+     * @return      samples of the cycle per frame
+     */
+    public double getStep(int key) {
+        return STEPS[key];
+    }
+
+    /**
+     * Returns the length of a cycle, where the phase wraps around.
+     *
+     * @return  samples per cycle
+     */
+    public int getCycleSize() {
+        return SIZE;
+    }
+
+    public AudioFormat getFormat() {
+        return FORMAT;
+    }
+
+    /**
+     * Returns the memory used by the tables.
+     *
+     * @return  size in bytes
+     */
+    public long getFootprint() {
+        return CYCLES.length * SIZE * 4L + STEPS.length * 8L;
+    }
+}